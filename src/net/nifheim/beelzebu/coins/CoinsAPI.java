@@ -16,14 +16,19 @@
  */
 package net.nifheim.beelzebu.coins;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.text.DecimalFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
 import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
 import net.nifheim.beelzebu.coins.common.utils.CacheManager;
+import net.nifheim.beelzebu.coins.common.utils.DebugCategory;
 
 /**
  * @author Beelzebu
@@ -40,11 +45,18 @@ public class CoinsAPI {
      * @return
      */
     public static double getCoins(String player) {
-        if (CacheManager.getCoins(core.getUUID(player)) == -1) {
-            double coins = core.getDatabase().getCoins(player);
-            CacheManager.updateCoins(core.getUUID(player), coins);
+        UUID uuid = core.getUUID(player);
+        if (uuid == null) { // the player isn't online or in the database
+            return -1;
         }
-        return CacheManager.getCoins(core.getUUID(player));
+        double cached = CacheManager.getCoins(uuid);
+        if (cached == -1) {
+            double coins = core.getDatabase().getCoins(player); // the database caches the balance with its version
+            core.registerInterest(uuid);
+            cached = CacheManager.getCoins(uuid);
+            return cached > -1 ? cached : coins;
+        }
+        return cached;
     }
 
     /**
@@ -55,8 +67,16 @@ public class CoinsAPI {
      */
     public static double getCoins(UUID uuid) {
         if (CacheManager.getCoins(uuid) == -1) {
-            double coins = core.getDatabase().getCoins(uuid);
-            CacheManager.updateCoins(uuid, coins);
+            if (CacheManager.getMissingPlayers().contains(uuid) && !core.isOnline(uuid)) {
+                return -1;
+            }
+            double coins = core.getDatabase().getCoins(uuid); // the database caches the players that aren't found
+            if (coins == -1) {
+                return -1;
+            }
+            core.registerInterest(uuid);
+            double cached = CacheManager.getCoins(uuid); // the database caches the balance with its version
+            return cached > -1 ? cached : coins;
         }
         return CacheManager.getCoins(uuid);
     }
@@ -125,18 +145,16 @@ public class CoinsAPI {
      * @param multiply Multiply coins if there are any active multipliers
      */
     public static void addCoins(String player, double coins, boolean multiply) {
+        UUID uuid = core.getUUID(player);
         if (multiply) {
             coins *= getMultiplier().getAmount();
-            for (String perm : core.getMethods().getPermissions(core.getUUID(player))) {
-                if (perm.startsWith("coins.multiplier.x")) {
-                    try {
-                        int i = Integer.parseInt(perm.split("coins.multiplier.x")[1]);
-                        coins *= i;
-                        break;
-                    } catch (NumberFormatException ignore) {
-                    }
-                }
+            coins *= CacheManager.getPermissionMultipliers().get(uuid); // players that aren't online get 1
+        }
+        if (uuid != null) {
+            if (core.getBalanceJournal() != null && core.getBalanceJournal().addCoins(uuid, coins)) {
+                return;
             }
+            flushPending(uuid);
         }
         core.getDatabase().addCoins(player, coins);
     }
@@ -151,17 +169,12 @@ public class CoinsAPI {
     public static void addCoins(UUID uuid, double coins, boolean multiply) {
         if (multiply) {
             coins *= getMultiplier().getAmount();
-            for (String perm : core.getMethods().getPermissions(uuid)) {
-                if (perm.startsWith("coins.multiplier.x")) {
-                    try {
-                        int i = Integer.parseInt(perm.split("coins.multiplier.x")[1]);
-                        coins *= i;
-                        break;
-                    } catch (NumberFormatException ignore) {
-                    }
-                }
-            }
+            coins *= CacheManager.getPermissionMultipliers().get(uuid);
+        }
+        if (core.getBalanceJournal() != null && core.getBalanceJournal().addCoins(uuid, coins)) {
+            return;
         }
+        flushPending(uuid);
         core.getDatabase().addCoins(uuid, coins);
     }
 
@@ -172,6 +185,7 @@ public class CoinsAPI {
      * @param coins
      */
     public static void takeCoins(String p, double coins) {
+        flushPending(p);
         core.getDatabase().takeCoins(p, coins);
     }
 
@@ -182,15 +196,30 @@ public class CoinsAPI {
      * @param coins
      */
     public static void takeCoins(UUID p, double coins) {
+        flushPending(p);
         core.getDatabase().takeCoins(p, coins);
     }
 
+    /**
+     * Take coins of a player only if he has enough coins, use this instead of checking the coins and taking them
+     * later, because the player may spend the coins in between.
+     *
+     * @param uuid  The player to take the coins.
+     * @param coins The coins to take.
+     * @return true if the coins were taken, false if the player doesn't have enough coins.
+     */
+    public static boolean spendCoins(UUID uuid, double coins) {
+        flushPending(uuid);
+        return core.getDatabase().spendCoins(uuid, coins) > -1;
+    }
+
     /**
      * Reset the coins of a player by his name.
      *
      * @param p
      */
     public static void resetCoins(String p) {
+        flushPending(p);
         core.getDatabase().resetCoins(p);
     }
 
@@ -200,6 +229,7 @@ public class CoinsAPI {
      * @param p
      */
     public static void resetCoins(UUID p) {
+        flushPending(p);
         core.getDatabase().resetCoins(p);
     }
 
@@ -210,6 +240,7 @@ public class CoinsAPI {
      * @param coins
      */
     public static void setCoins(String p, double coins) {
+        flushPending(p);
         core.getDatabase().setCoins(p, coins);
     }
 
@@ -220,6 +251,7 @@ public class CoinsAPI {
      * @param coins
      */
     public static void setCoins(UUID p, double coins) {
+        flushPending(p);
         core.getDatabase().setCoins(p, coins);
     }
 
@@ -232,12 +264,12 @@ public class CoinsAPI {
      * @return true or false if the transaction is completed.
      */
     public static boolean payCoins(String from, String to, double amount) {
-        if (getCoins(from) >= amount) {
-            takeCoins(from, amount);
-            addCoins(to, amount);
-            return true;
+        UUID fromUUID = core.getUUID(from);
+        UUID toUUID = core.getUUID(to);
+        if (fromUUID == null || toUUID == null) {
+            return false;
         }
-        return false;
+        return payCoins(fromUUID, toUUID, amount);
     }
 
     /**
@@ -249,12 +281,15 @@ public class CoinsAPI {
      * @return true or false if the transaction is completed.
      */
     public static boolean payCoins(UUID from, UUID to, double amount) {
-        if (getCoins(from) >= amount) {
-            takeCoins(from, amount);
-            addCoins(to, amount);
-            return true;
+        if (amount <= 0 || from.equals(to)) {
+            return false;
         }
-        return false;
+        if (CacheManager.getCoins(to) == -1 && core.isOnline(to)) { // online players may not be in the database yet
+            createPlayer(core.getNick(to), to);
+        }
+        flushPending(from);
+        flushPending(to);
+        return core.getDatabase().transfer(from, to, amount).isSuccess();
     }
 
     /**
@@ -268,6 +303,9 @@ public class CoinsAPI {
         if (CacheManager.getCoins(core.getUUID(player)) > -1) { // If the player is in the cache it should be in the database.
             return true;
         }
+        if (CacheManager.getMissingPlayers().contains(player)) {
+            return false;
+        }
         return core.getDatabase().isindb(player);
     }
 
@@ -281,6 +319,9 @@ public class CoinsAPI {
         if (CacheManager.getCoins(uuid) > -1) { // If the player is in the cache it should be in the database.
             return true;
         }
+        if (CacheManager.getMissingPlayers().contains(uuid)) {
+            return false;
+        }
         return core.getDatabase().isindb(uuid);
     }
 
@@ -303,9 +344,181 @@ public class CoinsAPI {
      * @return The ordered top list of players and his balance.
      */
     public static Map<String, Double> getTopPlayers(int top) {
+        if (CacheManager.getLeaderboard().canGetTop(top)) {
+            return CacheManager.getLeaderboard().getTop(top);
+        }
         return core.getDatabase().getTopPlayers(top);
     }
 
+    /**
+     * Get the position of a player in the top.
+     *
+     * @param uuid The player to check.
+     * @return The position of the player starting from 1, or -1 if the player isn't in the top or the top isn't
+     * loaded yet.
+     */
+    public static int getRank(UUID uuid) {
+        return CacheManager.getLeaderboard().getRank(uuid);
+    }
+
+    /**
+     * Get the coins of a Player by his name without blocking the current thread.
+     *
+     * @param player Player to get the coins.
+     * @return A future that is completed with the coins of the player.
+     * @see #getCoins(String)
+     */
+    public static CompletableFuture<Double> getCoinsAsync(String player) {
+        return supplyAsync(() -> getCoins(player));
+    }
+
+    /**
+     * Get the coins of a Player by his UUID without blocking the current thread, if the player is cached the returned
+     * future is already completed.
+     *
+     * @param uuid Player to get the coins.
+     * @return A future that is completed with the coins of the player.
+     * @see #getCoins(UUID)
+     */
+    public static CompletableFuture<Double> getCoinsAsync(UUID uuid) {
+        double coins = CacheManager.getCoins(uuid);
+        if (coins > -1) {
+            return CompletableFuture.completedFuture(coins);
+        }
+        return supplyAsync(() -> getCoins(uuid));
+    }
+
+    /**
+     * Add coins to a player by his name without blocking the current thread.
+     *
+     * @param player   The player to add the coins.
+     * @param coins    The coins to add.
+     * @param multiply Multiply coins if there are any active multipliers
+     * @return A future that is completed when the coins were added.
+     * @see #addCoins(String, double, boolean)
+     */
+    public static CompletableFuture<Void> addCoinsAsync(String player, double coins, boolean multiply) {
+        return runAsync(() -> addCoins(player, coins, multiply));
+    }
+
+    /**
+     * Add coins to a player by his UUID without blocking the current thread.
+     *
+     * @param uuid     The player to add the coins.
+     * @param coins    The coins to add.
+     * @param multiply Multiply coins if there are any active multipliers
+     * @return A future that is completed when the coins were added.
+     * @see #addCoins(UUID, double, boolean)
+     */
+    public static CompletableFuture<Void> addCoinsAsync(UUID uuid, double coins, boolean multiply) {
+        return runAsync(() -> addCoins(uuid, coins, multiply));
+    }
+
+    /**
+     * Take coins of a player by his name without blocking the current thread.
+     *
+     * @param p     The player to take the coins.
+     * @param coins The coins to take.
+     * @return A future that is completed when the coins were taken.
+     */
+    public static CompletableFuture<Void> takeCoinsAsync(String p, double coins) {
+        return runAsync(() -> takeCoins(p, coins));
+    }
+
+    /**
+     * Take coins of a player by his UUID without blocking the current thread.
+     *
+     * @param p     The player to take the coins.
+     * @param coins The coins to take.
+     * @return A future that is completed when the coins were taken.
+     */
+    public static CompletableFuture<Void> takeCoinsAsync(UUID p, double coins) {
+        return runAsync(() -> takeCoins(p, coins));
+    }
+
+    /**
+     * Take coins of a player only if he has enough coins without blocking the current thread.
+     *
+     * @param uuid  The player to take the coins.
+     * @param coins The coins to take.
+     * @return A future completed with true if the coins were taken.
+     * @see #spendCoins(UUID, double)
+     */
+    public static CompletableFuture<Boolean> spendCoinsAsync(UUID uuid, double coins) {
+        return supplyAsync(() -> spendCoins(uuid, coins));
+    }
+
+    /**
+     * Reset the coins of a player by his UUID without blocking the current thread.
+     *
+     * @param p The player to reset the coins.
+     * @return A future that is completed when the coins were reset.
+     */
+    public static CompletableFuture<Void> resetCoinsAsync(UUID p) {
+        return runAsync(() -> resetCoins(p));
+    }
+
+    /**
+     * Set the coins of a player by his UUID without blocking the current thread.
+     *
+     * @param p     The player to set the coins.
+     * @param coins The new balance of the player.
+     * @return A future that is completed when the coins were set.
+     */
+    public static CompletableFuture<Void> setCoinsAsync(UUID p, double coins) {
+        return runAsync(() -> setCoins(p, coins));
+    }
+
+    /**
+     * Pay coins to another player without blocking the current thread.
+     *
+     * @param from   The player to get the coins.
+     * @param to     The player to pay.
+     * @param amount The amount of coins to pay.
+     * @return A future that is completed with true if the transaction is completed or false if not.
+     * @see #payCoins(String, String, double)
+     */
+    public static CompletableFuture<Boolean> payCoinsAsync(String from, String to, double amount) {
+        return supplyAsync(() -> payCoins(from, to, amount));
+    }
+
+    /**
+     * Pay coins to another player without blocking the current thread.
+     *
+     * @param from   The player to get the coins.
+     * @param to     The player to pay.
+     * @param amount The amount of coins to pay.
+     * @return A future that is completed with true if the transaction is completed or false if not.
+     * @see #payCoins(UUID, UUID, double)
+     */
+    public static CompletableFuture<Boolean> payCoinsAsync(UUID from, UUID to, double amount) {
+        return supplyAsync(() -> payCoins(from, to, amount));
+    }
+
+    /**
+     * Get if a player with the specified uuid exists in the database without blocking the current thread.
+     *
+     * @param uuid The uuid to look for in the database.
+     * @return A future that is completed with true if the player exists in the database or false if not.
+     */
+    public static CompletableFuture<Boolean> isindbAsync(UUID uuid) {
+        if (CacheManager.getCoins(uuid) > -1) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return supplyAsync(() -> isindb(uuid));
+    }
+
+    /**
+     * Get the top players in coins data without blocking the current thread.
+     *
+     * @param top The lenght of the top list, for example 5 will get a max of 5 users for the top.
+     * @return A future that is completed with the ordered top list of players and his balance.
+     * @see #getTopPlayers(int)
+     */
+    public static CompletableFuture<Map<String, Double>> getTopPlayersAsync(int top) {
+        return supplyAsync(() -> getTopPlayers(top));
+    }
+
     /**
      * Register a user in the database with the default starting balance.
      *
@@ -313,7 +526,7 @@ public class CoinsAPI {
      * @param uuid The uuid of the user.
      */
     public static void createPlayer(String nick, UUID uuid) {
-        createPlayer(nick, uuid, core.getConfig().getDouble("General.Starting Coins", 0));
+        createPlayer(nick, uuid, core.getConfig().getSettings().getStartingCoins());
     }
 
     /**
@@ -327,8 +540,8 @@ public class CoinsAPI {
         if (CacheManager.getCoins(uuid) != -1) { // Check if the player is in cache to avoid opening a new connection.
             return;
         }
-        try {
-            core.getDatabase().createPlayer(core.getDatabase().getConnection(), nick, uuid, balance);
+        try (Connection c = core.getDatabase().getConnection()) {
+            core.getDatabase().createPlayer(c, nick, uuid, balance);
         } catch (SQLException ex) {
             core.log("An error has ocurred while creating a player in the database from the API.");
             core.debug(ex);
@@ -355,6 +568,46 @@ public class CoinsAPI {
      * @return The active multiplier for this server.
      */
     public static Multiplier getMultiplier() {
-        return getMultiplier(core.getConfig().getString("Multipliers.Server", "default"));
+        return getMultiplier(core.getConfig().getSettings().getMultipliersServer());
+    }
+
+    /**
+     * Write the coins added by the write-behind journal to the database before any other change to the balance of a
+     * player.
+     *
+     * @param uuid The player to flush, nothing is flushed if is null.
+     */
+    private static void flushPending(UUID uuid) {
+        if (uuid != null && core.getBalanceJournal() != null) {
+            core.getBalanceJournal().flush(uuid);
+        }
+    }
+
+    private static void flushPending(String player) {
+        if (core.getBalanceJournal() != null) {
+            flushPending(core.getUUID(player));
+        }
+    }
+
+    /**
+     * Run the supplier in the async executor, if the executor is full or shut down the returned future is completed
+     * exceptionally with the {@link RejectedExecutionException}, the caller's thread never runs the query.
+     */
+    private static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, core.getAsyncExecutor());
+        } catch (RejectedExecutionException ex) {
+            core.debug(DebugCategory.DATABASE, () -> "The async executor rejected a task: " + ex.getMessage());
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(ex);
+            return future;
+        }
+    }
+
+    private static CompletableFuture<Void> runAsync(Runnable runnable) {
+        return supplyAsync(() -> {
+            runnable.run();
+            return null;
+        });
     }
 }
@@ -31,6 +31,7 @@ import net.nifheim.beelzebu.coins.common.utils.IMethods;
 import net.nifheim.beelzebu.coins.common.utils.MessagesManager;
 import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
+import org.bukkit.permissions.PermissionAttachmentInfo;
 import org.bukkit.plugin.Plugin;
 
 /**
@@ -144,7 +145,7 @@ public class BukkitMethods implements IMethods {
     public List<String> getPermissions(UUID uuid) {
         List<String> permissions = new ArrayList<>();
         if (isOnline(uuid)) {
-            Bukkit.getPlayer(uuid).getEffectivePermissions().forEach(perm -> permissions.add(perm.getPermission()));
+            Bukkit.getPlayer(uuid).getEffectivePermissions().stream().filter(PermissionAttachmentInfo::getValue).forEach(perm -> permissions.add(perm.getPermission()));
         }
         return permissions;
     }
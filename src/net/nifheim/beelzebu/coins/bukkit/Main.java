@@ -16,11 +16,9 @@
  */
 package net.nifheim.beelzebu.coins.bukkit;
 
-import net.nifheim.beelzebu.coins.CoinsAPI;
 import net.nifheim.beelzebu.coins.bukkit.command.CommandManager;
 import net.nifheim.beelzebu.coins.bukkit.listener.CommandListener;
 import net.nifheim.beelzebu.coins.bukkit.listener.GUIListener;
-import net.nifheim.beelzebu.coins.bukkit.listener.InternalListener;
 import net.nifheim.beelzebu.coins.bukkit.listener.PlayerJoinListener;
 import net.nifheim.beelzebu.coins.bukkit.listener.SignListener;
 import net.nifheim.beelzebu.coins.bukkit.utils.CoinsEconomy;
@@ -69,6 +67,9 @@ public class Main extends JavaPlugin {
         commandManager = new CommandManager();
         loadManagers();
         startListeners();
+        if (core.getConfig().getSettings().isOnlineMode()) { // load the players that are online after a reload
+            Bukkit.getOnlinePlayers().forEach(player -> core.getPlayerLoader().load(player.getUniqueId(), player.getName()));
+        }
         getConfig().getConfigurationSection("Command executor").getKeys(false).forEach(id -> core.getExecutorManager().addExecutor(new Executor(id, getConfig().getString("Command executor." + id + ".Displayname", id), getConfig().getDouble("Command executor." + id + ".Cost", 0), getConfig().getStringList("Command executor." + id + ".Command"))));
         startTasks();
     }
@@ -121,7 +122,6 @@ public class Main extends JavaPlugin {
     private void startListeners() {
         Bukkit.getPluginManager().registerEvents(new CommandListener(), this);
         Bukkit.getPluginManager().registerEvents(new GUIListener(), this);
-        Bukkit.getPluginManager().registerEvents(new InternalListener(), this);
         Bukkit.getPluginManager().registerEvents(new PlayerJoinListener(this), this);
         Bukkit.getPluginManager().registerEvents(new SignListener(), this);
     }
@@ -132,7 +132,6 @@ public class Main extends JavaPlugin {
             Bukkit.getMessenger().registerOutgoingPluginChannel(this, CoinsCore.MESSAGING_CHANNEL);
             Bukkit.getMessenger().registerIncomingPluginChannel(this, CoinsCore.MESSAGING_CHANNEL, pmsg);
         }
-        Bukkit.getScheduler().runTaskLaterAsynchronously(this, () -> Bukkit.getOnlinePlayers().forEach(p -> CoinsAPI.createPlayer(p.getName(), p.getUniqueId())), 30);
     }
 
     public CoinsConfig getConfiguration() {
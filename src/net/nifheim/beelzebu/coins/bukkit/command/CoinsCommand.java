@@ -18,15 +18,17 @@ package net.nifheim.beelzebu.coins.bukkit.command;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.UUID;
 import net.nifheim.beelzebu.coins.CoinsAPI;
 import net.nifheim.beelzebu.coins.bukkit.Main;
 import net.nifheim.beelzebu.coins.bukkit.utils.CoinsEconomy;
 import net.nifheim.beelzebu.coins.bukkit.utils.bungee.PluginMessage;
 import net.nifheim.beelzebu.coins.bukkit.utils.gui.MultipliersGUI;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
+import net.nifheim.beelzebu.coins.common.database.Database;
 import net.nifheim.beelzebu.coins.common.executor.Executor;
 import net.nifheim.beelzebu.coins.common.importer.ImportManager;
+import net.nifheim.beelzebu.coins.common.messaging.OutboundQueue;
 import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
 import net.nifheim.beelzebu.coins.common.utils.CacheManager;
 import org.bukkit.Bukkit;
@@ -125,21 +127,26 @@ public class CoinsCommand extends BukkitCommand {
             if (CoinsAPI.isindb(args[1])) {
                 double coins = Double.parseDouble(args[2]);
                 if (coins > 0) {
-                    if (CoinsAPI.getCoins(((Player) sender).getUniqueId()) >= coins) {
-                        if (target != null) {
-                            CoinsAPI.takeCoins(sender.getName(), coins);
+                    if (target != null) {
+                        String lang = this.lang;
+                        CoinsAPI.payCoinsAsync(((Player) sender).getUniqueId(), target.getUniqueId(), coins).whenComplete((paid, error) -> {
+                            if (error != null) {
+                                sendError(sender, "paying " + coins + " coins to " + target.getName(), error);
+                                return;
+                            }
+                            if (!paid) {
+                                sender.sendMessage(core.getString("Errors.No Coins", lang));
+                                return;
+                            }
                             if (!core.getString("Coins.Pay", lang).equals("")) {
                                 sender.sendMessage(core.getString("Coins.Pay", lang).replaceAll("%coins%", String.valueOf(coins)).replaceAll("%target%", target.getName()));
                             }
-                            CoinsAPI.addCoins(args[1], coins, false);
                             if (!core.getString("Coins.Pay target", target.spigot().getLocale()).equals("")) {
                                 target.sendMessage(core.getString("Coins.Pay target", target.spigot().getLocale()).replaceAll("%coins%", String.valueOf(coins)).replaceAll("%from%", sender.getName()));
                             }
-                        } else {
-                            sender.sendMessage(core.getString("Errors.Unknow Player", lang));
-                        }
+                        });
                     } else {
-                        sender.sendMessage(core.getString("Errors.No Coins", lang));
+                        sender.sendMessage(core.getString("Errors.Unknow Player", lang));
                     }
                 } else {
                     sender.sendMessage(core.getString("Errors.No Zero", lang));
@@ -299,13 +306,19 @@ public class CoinsCommand extends BukkitCommand {
     }
 
     public boolean top(CommandSender sender, String[] args) {
-        sender.sendMessage(core.getString("Coins.Top.Header", lang));
-        Map<String, Double> topMap = CoinsAPI.getTopPlayers(10);
-        int i = 0;
-        for (String player : topMap.keySet()) {
-            i++;
-            sender.sendMessage(core.getString("Coins.Top.List", lang).replaceAll("%top%", String.valueOf(i)).replaceAll("%player%", player).replaceAll("%coins%", String.valueOf((int) Math.round(topMap.get(player)))));
-        }
+        String lang = this.lang;
+        CoinsAPI.getTopPlayersAsync(10).whenComplete((topMap, error) -> {
+            if (error != null) {
+                sendError(sender, "getting the top players", error);
+                return;
+            }
+            sender.sendMessage(core.getString("Coins.Top.Header", lang));
+            int i = 0;
+            for (String player : topMap.keySet()) {
+                i++;
+                sender.sendMessage(core.getString("Coins.Top.List", lang).replaceAll("%top%", String.valueOf(i)).replaceAll("%player%", player).replaceAll("%coins%", String.valueOf((int) Math.round(topMap.get(player)))));
+            }
+        });
         return true;
     }
 
@@ -349,7 +362,7 @@ public class CoinsCommand extends BukkitCommand {
                         }
                         multiplier.sendMultiplier();
                         core.getMethods().callMultiplierEnableEvent(null, multiplier.getData());
-                        core.rep(core.getMessages(lang).getStringList("Multipliers.Set"), multiplier.getData()).forEach(msg -> {
+                        core.getStringList("Multipliers.Set", lang, multiplier.getData()).forEach(msg -> {
                             sender.sendMessage(msg);
                         });
                     } catch (NullPointerException | NumberFormatException ex) {
@@ -380,27 +393,19 @@ public class CoinsCommand extends BukkitCommand {
                 sender.sendMessage(core.getString("Errors.No Execute", lang));
             } else {
                 if (ex.getCost() > 0) {
-                    if (CoinsAPI.getCoins(((Player) sender).getUniqueId()) >= ex.getCost()) {
-                        CoinsAPI.takeCoins(((Player) sender).getUniqueId(), ex.getCost());
-                    } else {
-                        sender.sendMessage(core.getString("Errors.No Coins", lang));
-                        return true;
-                    }
-                }
-                if (!ex.getCommands().isEmpty()) {
-                    core.getMethods().runSync(() -> {
-                        String command;
-                        for (String str : ex.getCommands()) {
-                            command = core.rep(str).replaceAll("%player%", sender.getName());
-                            if (command.startsWith("message:")) {
-                                sender.sendMessage(core.rep(command.replaceFirst("message:", "")));
-                            } else if (command.startsWith("broadcast:")) {
-                                Bukkit.getServer().broadcastMessage(core.rep(command.replaceFirst("broadcast:", "")));
-                            } else {
-                                Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
-                            }
+                    UUID uuid = ((Player) sender).getUniqueId();
+                    String lang = this.lang;
+                    CoinsAPI.spendCoinsAsync(uuid, ex.getCost()).whenComplete((paid, error) -> {
+                        if (error != null) {
+                            sendError(sender, "running the executor " + ex.getID(), error);
+                        } else if (paid) {
+                            runCommands(sender, ex);
+                        } else {
+                            sender.sendMessage(core.getString("Errors.No Coins", lang));
                         }
                     });
+                } else {
+                    runCommands(sender, ex);
                 }
             }
         } else {
@@ -409,6 +414,31 @@ public class CoinsCommand extends BukkitCommand {
         return true;
     }
 
+    private void sendError(CommandSender sender, String action, Throwable error) {
+        core.log("&cAn internal error has occurred " + action + " for " + sender.getName() + ".");
+        core.debug(error.getMessage());
+        sender.sendMessage(core.rep("%prefix% &cAn internal error has occurred, please check the console."));
+    }
+
+    private void runCommands(CommandSender sender, Executor ex) {
+        if (ex.getCommands().isEmpty()) {
+            return;
+        }
+        core.getMethods().runSync(() -> {
+            String command;
+            for (String str : ex.getCommands()) {
+                command = core.rep(str).replaceAll("%player%", sender.getName());
+                if (command.startsWith("message:")) {
+                    sender.sendMessage(core.rep(command.replaceFirst("message:", "")));
+                } else if (command.startsWith("broadcast:")) {
+                    Bukkit.getServer().broadcastMessage(core.rep(command.replaceFirst("broadcast:", "")));
+                } else {
+                    Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
+                }
+            }
+        });
+    }
+
     private boolean imporT(CommandSender sender, String[] args) {
         if (sender instanceof Player) {
             sender.sendMessage(core.rep("%prefix% &cThis command must be executed from the console."));
@@ -495,6 +525,9 @@ public class CoinsCommand extends BukkitCommand {
             sender.sendMessage(core.rep(" &cExecutors:&7 " + core.getExecutorManager().getExecutors().size()));
             sender.sendMessage(core.rep(" &cMySQL:&7 " + core.isMySQL()));
             sender.sendMessage(core.rep(" &cMultipliers in cache:&7 " + CacheManager.getMultipliersData().keySet()));
+            sender.sendMessage(core.rep(" &cPrepared statements:&7 " + Database.Utils.getPreparedStatements() + " &8(&7" + Database.Utils.getReusedStatements() + " reused from the cache&8)"));
+            OutboundQueue queue = PluginMessage.getQueue();
+            sender.sendMessage(core.rep(" &cQueued plugin messages:&7 " + queue.size() + " &8(&7" + queue.getQueued() + " queued, " + queue.getMerged() + " merged, " + queue.getDropped() + " dropped, " + queue.getDrained() + " sent&8)"));
             sender.sendMessage("");
         }
         return true;
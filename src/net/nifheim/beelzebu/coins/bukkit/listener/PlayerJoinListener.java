@@ -21,6 +21,7 @@ import net.nifheim.beelzebu.coins.bukkit.Main;
 import net.nifheim.beelzebu.coins.bukkit.utils.bungee.PluginMessage;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
 import net.nifheim.beelzebu.coins.common.utils.CacheManager;
+import org.bukkit.Bukkit;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
@@ -41,8 +42,16 @@ public class PlayerJoinListener implements Listener {
 
     @EventHandler(priority = EventPriority.LOWEST)
     public void onPlayerJoin(PlayerJoinEvent e) {
+        if (core.getConfig().useBungee() && PluginMessage.getQueue().size() > 0) { // the channel isn't registered until the player is fully connected
+            Bukkit.getScheduler().runTaskLater(Main.getInstance(), PluginMessage::sendQueue, 20);
+        }
+        if (core.getConfig().getSettings().isOnlineMode()) { // players are loaded in batches by uuid
+            core.getPlayerLoader().load(e.getPlayer().getUniqueId(), e.getPlayer().getName());
+        }
+        // resolve the multiplier from the permissions after the permission plugins handle the join, so the first reward doesn't do it
+        Bukkit.getScheduler().runTask(Main.getInstance(), () -> CacheManager.getPermissionMultipliers().get(e.getPlayer().getUniqueId()));
         core.getMethods().runAsync(() -> {
-            if (core.getConfig().getBoolean("General.Create Join", false)) {
+            if (!core.getConfig().getSettings().isOnlineMode() && core.getConfig().getSettings().isCreateJoin()) {
                 CoinsAPI.createPlayer(e.getPlayer().getName(), e.getPlayer().getUniqueId());
             }
             if (!core.getConfig().useBungee()) {
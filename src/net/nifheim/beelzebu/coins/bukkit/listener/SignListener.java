@@ -125,30 +125,20 @@ public class SignListener implements Listener {
                     Executor ex = core.getExecutorManager().getExecutor(signs.getString(id + ".Executor"));
                     if (ex == null) {
                         p.sendMessage(core.getString("Errors.No Execute", p.spigot().getLocale()));
-                    } else {
-                        if (ex.getCost() > 0) {
-                            if (CoinsAPI.getCoins(p.getUniqueId()) >= ex.getCost()) {
-                                CoinsAPI.takeCoins(p.getName(), ex.getCost());
+                    } else if (ex.getCost() > 0) {
+                        CoinsAPI.spendCoinsAsync(p.getUniqueId(), ex.getCost()).whenComplete((paid, error) -> {
+                            if (error != null) {
+                                core.log("&cAn internal error has occurred running the executor " + ex.getID() + " for " + p.getName() + ".");
+                                core.debug(error.getMessage());
+                                p.sendMessage(core.rep("%prefix% &cAn internal error has occurred, please check the console."));
+                            } else if (paid) {
+                                runCommands(p, ex);
                             } else {
                                 p.sendMessage(core.getString("Errors.No Coins", p.spigot().getLocale()));
-                                return;
                             }
-                        }
-                        if (!ex.getCommands().isEmpty()) {
-                            core.getMethods().runSync(() -> {
-                                String command;
-                                for (String str : ex.getCommands()) {
-                                    command = core.rep(str).replaceAll("%player%", p.getName());
-                                    if (command.startsWith("message:")) {
-                                        p.sendMessage(core.rep(command.replaceFirst("message:", "")));
-                                    } else if (command.startsWith("broadcast:")) {
-                                        Bukkit.getServer().broadcastMessage(core.rep(command.replaceFirst("broadcast:", "")));
-                                    } else {
-                                        Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
-                                    }
-                                }
-                            });
-                        }
+                        });
+                    } else {
+                        runCommands(p, ex);
                     }
                     break;
                 }
@@ -156,6 +146,25 @@ public class SignListener implements Listener {
         }
     }
 
+    private void runCommands(Player p, Executor ex) {
+        if (ex.getCommands().isEmpty()) {
+            return;
+        }
+        core.getMethods().runSync(() -> {
+            String command;
+            for (String str : ex.getCommands()) {
+                command = core.rep(str).replaceAll("%player%", p.getName());
+                if (command.startsWith("message:")) {
+                    p.sendMessage(core.rep(command.replaceFirst("message:", "")));
+                } else if (command.startsWith("broadcast:")) {
+                    Bukkit.getServer().broadcastMessage(core.rep(command.replaceFirst("broadcast:", "")));
+                } else {
+                    Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
+                }
+            }
+        });
+    }
+
     private String rep(String str, Executor ex) {
         return core.rep(str).replaceAll("%executor_displayname%", ex.getDisplayName()).replaceAll("%executor_cost%", String.valueOf(ex.getCost()));
     }
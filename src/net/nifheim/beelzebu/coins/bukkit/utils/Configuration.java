@@ -28,7 +28,7 @@ import org.bukkit.configuration.file.FileConfiguration;
 public class Configuration extends CoinsConfig {
 
     private final Main plugin;
-    private final FileConfiguration config;
+    private FileConfiguration config;
 
     public Configuration(Main main) {
         plugin = main;
@@ -108,5 +108,7 @@ public class Configuration extends CoinsConfig {
     @Override
     public void reload() {
         plugin.reloadConfig();
+        config = plugin.getConfig(); // the plugin creates a new config when it is reloaded
+        invalidateSettings();
     }
 }
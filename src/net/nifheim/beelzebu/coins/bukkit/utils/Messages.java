@@ -113,5 +113,6 @@ public class Messages extends MessagesManager {
     @Override
     public void reload() {
         messages = YamlConfiguration.loadConfiguration(langFile);
+        clearTemplates();
     }
 }
@@ -24,10 +24,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
-import net.nifheim.beelzebu.coins.CoinsAPI;
 import net.nifheim.beelzebu.coins.bukkit.Main;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
 import net.nifheim.beelzebu.coins.common.executor.Executor;
+import net.nifheim.beelzebu.coins.common.messaging.MessageProtocol;
+import net.nifheim.beelzebu.coins.common.messaging.OutboundQueue;
+import net.nifheim.beelzebu.coins.common.messaging.SyncReceiver;
 import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
 import net.nifheim.beelzebu.coins.common.utils.CacheManager;
 import org.bukkit.Bukkit;
@@ -39,7 +41,9 @@ import org.bukkit.plugin.messaging.PluginMessageListener;
  */
 public class PluginMessage implements PluginMessageListener {
 
+    private static final OutboundQueue QUEUE = new OutboundQueue(1000);
     private final CoinsCore core = CoinsCore.getInstance();
+    private final SyncReceiver receiver = new SyncReceiver("BungeeCord");
 
     public static void sendToBungeeCord(String subchannel, String message) {
         sendToBungeeCord(subchannel, Collections.singletonList(message));
@@ -49,17 +53,46 @@ public class PluginMessage implements PluginMessageListener {
         ByteArrayDataOutput out = ByteStreams.newDataOutput();
         out.writeUTF(subchannel);
         messages.forEach(out::writeUTF);
+        sendToBungeeCord(out.toByteArray());
+    }
+
+    /**
+     * Send a message to BungeeCord, if there are no players online the message is queued until a player joins.
+     *
+     * @param message The message to send.
+     */
+    public static void sendToBungeeCord(byte[] message) {
+        Player p = Iterables.getFirst(Bukkit.getOnlinePlayers(), null);
+        if (p != null) {
+            p.sendPluginMessage(Main.getInstance(), CoinsCore.MESSAGING_CHANNEL, message);
+        } else {
+            QUEUE.offer(message);
+        }
+    }
+
+    /**
+     * Send all the messages that were queued while there were no players online.
+     */
+    public static void sendQueue() {
         Player p = Iterables.getFirst(Bukkit.getOnlinePlayers(), null);
         if (p != null) {
-            p.sendPluginMessage(Main.getInstance(), CoinsCore.MESSAGING_CHANNEL, out.toByteArray());
+            QUEUE.drain().forEach(message -> p.sendPluginMessage(Main.getInstance(), CoinsCore.MESSAGING_CHANNEL, message));
         }
     }
 
+    public static OutboundQueue getQueue() {
+        return QUEUE;
+    }
+
     @Override
     public synchronized void onPluginMessageReceived(String channel, Player player, byte[] message) {
         if (!channel.equals(CoinsCore.MESSAGING_CHANNEL)) {
             return;
         }
+        if (MessageProtocol.isFrame(message)) {
+            receiver.accept(message);
+            return;
+        }
         ByteArrayDataInput in = ByteStreams.newDataInput(message);
         String subchannel = in.readUTF();
         switch (subchannel) {
@@ -99,11 +132,7 @@ public class PluginMessage implements PluginMessageListener {
                 for (int i = 0; i < 5; i++) {
                     multiplierData.add(in.readUTF());
                 }
-                Multiplier multiplier = new Multiplier(multiplierData.get(0), multiplierData.get(2), Boolean.valueOf(multiplierData.get(1)), Integer.valueOf(multiplierData.get(3)), Long.parseLong(multiplierData.get(4)));
-                if (multiplier.isEnabled() && multiplier.getID() != CoinsAPI.getMultiplier().getID()) {
-                    CacheManager.addMultiplier(multiplierData.get(0), multiplier);
-                    core.getMethods().callMultiplierEnableEvent(core.getUUID(multiplier.getEnabler()), multiplier.getData());
-                }
+                receiver.onMultiplier(new Multiplier(multiplierData.get(0), multiplierData.get(2), Boolean.valueOf(multiplierData.get(1)), Integer.valueOf(multiplierData.get(3)), Long.parseLong(multiplierData.get(4))));
                 break;
             default:
                 break;
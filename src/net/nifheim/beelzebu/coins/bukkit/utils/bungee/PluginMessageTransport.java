@@ -0,0 +1,47 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.bukkit.utils.bungee;
+
+import java.util.function.Consumer;
+import net.nifheim.beelzebu.coins.common.messaging.SyncTransport;
+
+/**
+ * Sends the frames to BungeeCord using plugin messages, the frames sent by BungeeCord are received by
+ * {@link PluginMessage}.
+ *
+ * @author Beelzebu
+ */
+public class PluginMessageTransport implements SyncTransport {
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+    }
+
+    @Override
+    public void publish(byte[] frame) {
+        PluginMessage.sendToBungeeCord(frame);
+    }
+
+    @Override
+    public boolean isBroadcast() {
+        return false;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
@@ -16,8 +16,6 @@
  */
 package net.nifheim.beelzebu.coins.bukkit.utils.gui;
 
-import java.util.ArrayList;
-import java.util.List;
 import net.nifheim.beelzebu.coins.CoinsAPI;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
 import net.nifheim.beelzebu.coins.common.multiplier.MultiplierData;
@@ -93,12 +91,8 @@ public class ConfirmGUI extends BaseGUI {
             PotionMeta meta = (PotionMeta) is.getItemMeta();
             meta.setMainEffect(PotionEffectType.FIRE_RESISTANCE);
             meta.addItemFlags(ItemFlag.HIDE_POTION_EFFECTS);
-            meta.setDisplayName(rep(core.getString("Multipliers.Menu.Multipliers.Name", p.spigot().getLocale()), multiplierData));
-            List<String> lore = new ArrayList<>();
-            core.getMessages(p.spigot().getLocale()).getStringList("Multipliers.Menu.Multipliers.Lore").forEach(line -> {
-                lore.add(rep(line, multiplierData));
-            });
-            meta.setLore(lore);
+            meta.setDisplayName(core.getString("Multipliers.Menu.Multipliers.Name", p.spigot().getLocale(), multiplierData));
+            meta.setLore(core.getStringList("Multipliers.Menu.Multipliers.Lore", p.spigot().getLocale(), multiplierData));
             is.setItemMeta(meta);
             setItem(4, is);
         }
@@ -113,14 +107,4 @@ public class ConfirmGUI extends BaseGUI {
             });
         }
     }
-
-    private String rep(String str, MultiplierData data) {
-        return core.rep(
-                str
-                        .replaceAll("%amount%", String.valueOf(data.getAmount()))
-                        .replaceAll("%server%", data.getServer())
-                        .replaceAll("%minutes%", String.valueOf(data.getMinutes()))
-                        .replaceAll("%id%", String.valueOf(data.getID()))
-        );
-    }
 }
@@ -16,8 +16,6 @@
  */
 package net.nifheim.beelzebu.coins.bukkit.utils.gui;
 
-import java.util.ArrayList;
-import java.util.List;
 import net.nifheim.beelzebu.coins.CoinsAPI;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
 import net.nifheim.beelzebu.coins.common.multiplier.MultiplierData;
@@ -57,12 +55,8 @@ public class MultipliersGUI extends BaseGUI {
                 PotionMeta meta = (PotionMeta) item.getItemMeta();
                 meta.setMainEffect(PotionEffectType.FIRE_RESISTANCE);
                 meta.addItemFlags(ItemFlag.HIDE_POTION_EFFECTS);
-                meta.setDisplayName(rep(core.getString("Multipliers.Menu.Multipliers.Name", p.spigot().getLocale()), multiplierData));
-                List<String> lore = new ArrayList<>();
-                core.getMessages(p.spigot().getLocale()).getStringList("Multipliers.Menu.Multipliers.Lore").forEach(line -> {
-                    lore.add(rep(line, multiplierData));
-                });
-                meta.setLore(lore);
+                meta.setDisplayName(core.getString("Multipliers.Menu.Multipliers.Name", p.spigot().getLocale(), multiplierData));
+                meta.setLore(core.getStringList("Multipliers.Menu.Multipliers.Lore", p.spigot().getLocale(), multiplierData));
                 item.setItemMeta(meta);
                 setItem(pos, item, player -> {
                     new ConfirmGUI(player, core.getString("Multipliers.Menu.Confirm.Title", player.spigot().getLocale()), multiplierData).open(player);
@@ -73,11 +67,7 @@ public class MultipliersGUI extends BaseGUI {
             PotionMeta meta = (PotionMeta) item.getItemMeta();
             meta.addItemFlags(ItemFlag.HIDE_POTION_EFFECTS);
             meta.setDisplayName(core.getString("Multipliers.Menu.No Multipliers.Name", p.spigot().getLocale()));
-            List<String> lore = new ArrayList<>();
-            core.getMessages(p.spigot().getLocale()).getStringList("Multipliers.Menu.No Multipliers.Lore").forEach(line -> {
-                lore.add(core.rep(line));
-            });
-            meta.setLore(lore);
+            meta.setLore(core.getStringList("Multipliers.Menu.No Multipliers.Lore", p.spigot().getLocale(), null));
             item.setItemMeta(meta);
             setItem(22, item);
         }
@@ -107,14 +97,4 @@ public class MultipliersGUI extends BaseGUI {
             player.closeInventory();
         });
     }
-
-    private String rep(String str, MultiplierData data) {
-        return core.rep(
-                str
-                        .replaceAll("%amount%", String.valueOf(data.getAmount()))
-                        .replaceAll("%server%", data.getServer())
-                        .replaceAll("%minutes%", String.valueOf(data.getMinutes()))
-                        .replaceAll("%id%", String.valueOf(data.getID()))
-        );
-    }
 }
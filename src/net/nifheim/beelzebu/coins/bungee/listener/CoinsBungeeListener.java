@@ -22,11 +22,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 import net.md_5.bungee.api.config.ServerInfo;
 import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.event.ServerConnectedEvent;
 import net.md_5.bungee.event.EventHandler;
 import net.nifheim.beelzebu.coins.bungee.Main;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
+import net.nifheim.beelzebu.coins.common.messaging.MessageProtocol;
 import net.nifheim.beelzebu.coins.common.utils.CacheManager;
 import net.nifheim.beelzebu.coins.common.utils.IConfiguration;
 
@@ -44,7 +48,18 @@ public abstract class CoinsBungeeListener {
         ByteArrayDataOutput out = ByteStreams.newDataOutput();
         out.writeUTF(channel);
         messages.forEach(out::writeUTF);
-        server.sendData(CoinsCore.MESSAGING_CHANNEL, out.toByteArray(), wait);
+        sendToBukkit(out.toByteArray(), server, wait);
+    }
+
+    /**
+     * Send a frame of the {@link MessageProtocol} to a server.
+     *
+     * @param message The frame to send.
+     * @param server  The server to send the frame.
+     * @param wait    If the frame should be queued when the server doesn't have players.
+     */
+    public static void sendToBukkit(byte[] message, ServerInfo server, boolean wait) {
+        server.sendData(CoinsCore.MESSAGING_CHANNEL, message, wait);
     }
 
     public void sendExecutors(ServerInfo server) {
@@ -65,8 +80,25 @@ public abstract class CoinsBungeeListener {
         });
     }
 
+    @EventHandler
+    public void onServerConnected(ServerConnectedEvent e) {
+        UUID uuid = e.getPlayer().getUniqueId();
+        if (e.getPlayer().getServer() != null) { // the old server removes the player from the cache when he leaves
+            core.getUpdateBatcher().unregister(uuid, e.getPlayer().getServer().getInfo().getName());
+        }
+        core.getUpdateBatcher().register(uuid, e.getServer().getInfo().getName());
+    }
+
+    @EventHandler
+    public void onPostLogin(PostLoginEvent e) {
+        CacheManager.getPermissionMultipliers().get(e.getPlayer().getUniqueId()); // so the first reward doesn't check the permissions
+    }
+
     @EventHandler
     public void onPlayerQuit(PlayerDisconnectEvent e) {
         CacheManager.removePlayer(e.getPlayer().getUniqueId());
+        if (e.getPlayer().getServer() != null) {
+            core.getUpdateBatcher().unregister(e.getPlayer().getUniqueId(), e.getPlayer().getServer().getInfo().getName());
+        }
     }
 }
@@ -19,17 +19,21 @@ package net.nifheim.beelzebu.coins.bungee.listener;
 import com.google.common.io.ByteArrayDataInput;
 import com.google.common.io.ByteStreams;
 import com.imaginarycode.minecraft.redisbungee.RedisBungee;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.Server;
 import net.md_5.bungee.api.event.PluginMessageEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.event.EventHandler;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
+import net.nifheim.beelzebu.coins.common.database.VersionedBalance;
+import net.nifheim.beelzebu.coins.common.messaging.MessageProtocol;
 import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
+import net.nifheim.beelzebu.coins.common.utils.BalanceCache;
 import net.nifheim.beelzebu.coins.common.utils.CacheManager;
 
 /**
@@ -42,6 +46,11 @@ public class PluginMessageListener extends CoinsBungeeListener implements Listen
         if (!e.getTag().equals(CoinsCore.MESSAGING_CHANNEL)) {
             return;
         }
+        String sender = e.getSender() instanceof Server ? ((Server) e.getSender()).getInfo().getName() : null;
+        if (MessageProtocol.isFrame(e.getData())) {
+            receiveFrame(e.getData(), sender);
+            return;
+        }
         ByteArrayDataInput in = ByteStreams.newDataInput(e.getData());
         String channel = in.readUTF();
         switch (channel) {
@@ -68,8 +77,14 @@ public class PluginMessageListener extends CoinsBungeeListener implements Listen
                         if (plugin.useRedis()) {
                             RedisBungee.getApi().sendChannelMessage("Update", updatemsg[1] + " " + updatemsg[2]);
                         } else {
-                            CacheManager.updateCoins(UUID.fromString(updatemsg[1]), Double.parseDouble(updatemsg[2]));
-                            ProxyServer.getInstance().getServers().forEach((server, serverInfo) -> CoinsBungeeListener.sendToBukkit("Update", Collections.singletonList(updatemsg[1] + " " + updatemsg[2]), serverInfo, true));
+                            UUID uuid = UUID.fromString(updatemsg[1]);
+                            double balance = Double.parseDouble(updatemsg[2]);
+                            if (sender != null) {
+                                core.getUpdateBatcher().registerLookup(uuid, sender);
+                            }
+                            if (CacheManager.updateCoins(uuid, balance, BalanceCache.UNKNOWN_VERSION)) {
+                                core.getUpdateBatcher().add(uuid, new VersionedBalance(balance, BalanceCache.UNKNOWN_VERSION), sender);
+                            }
                         }
                     }
                 }
@@ -119,4 +134,55 @@ public class PluginMessageListener extends CoinsBungeeListener implements Listen
                 break;
         }
     }
+
+    private void receiveFrame(byte[] frame, String sender) {
+        boolean redis = plugin.useRedis();
+        try {
+            MessageProtocol.decode(frame, new MessageProtocol.Handler() {
+                @Override
+                public void onUpdate(UUID uuid, double balance, long version) {
+                    if (sender != null) { // the server that sent the update has the player cached
+                        core.getUpdateBatcher().registerLookup(uuid, sender);
+                    }
+                    if (redis) {
+                        RedisBungee.getApi().sendChannelMessage("Update", uuid + " " + balance + " " + version);
+                    } else if (CacheManager.updateCoins(uuid, balance, version)) { // don't send old balances to the servers
+                        core.getUpdateBatcher().add(uuid, new VersionedBalance(balance, version), sender);
+                    }
+                }
+
+                @Override
+                public void onMultiplier(Multiplier multiplier) {
+                    if (redis) {
+                        RedisBungee.getApi().sendChannelMessage("Multiplier", multiplier.getServer() + "|||" + multiplier.isEnabled() + "|||" + multiplier.getEnabler() + "|||" + multiplier.getAmount() + "|||" + (System.currentTimeMillis() + multiplier.checkTime()));
+                    } else {
+                        CacheManager.addMultiplier(multiplier.getServer(), multiplier);
+                        if (multiplier.isEnabled()) {
+                            core.getMethods().callMultiplierEnableEvent(core.getUUID(multiplier.getEnabler()), multiplier.getData());
+                        }
+                    }
+                }
+
+                @Override
+                public void onInterest(UUID uuid, boolean interested) {
+                    if (sender == null) {
+                        return;
+                    }
+                    if (interested) {
+                        core.getUpdateBatcher().registerLookup(uuid, sender);
+                    } else {
+                        core.getUpdateBatcher().unregister(uuid, sender);
+                    }
+                }
+            });
+        } catch (IOException ex) {
+            core.log("&cAn invalid message was received from a server, check that all the servers use the same version of the plugin.");
+            core.debug(ex);
+            return;
+        }
+        // updates are batched before they are sent to the servers
+        if (MessageProtocol.getType(frame) == MessageProtocol.MULTIPLIER) {
+            ProxyServer.getInstance().getServers().forEach((server, serverInfo) -> CoinsBungeeListener.sendToBukkit(frame, serverInfo, false));
+        }
+    }
 }
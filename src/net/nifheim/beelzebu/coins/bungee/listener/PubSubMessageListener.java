@@ -18,14 +18,16 @@ package net.nifheim.beelzebu.coins.bungee.listener;
 
 import com.imaginarycode.minecraft.redisbungee.events.PubSubMessageEvent;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.event.EventHandler;
+import net.nifheim.beelzebu.coins.common.database.VersionedBalance;
 import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
+import net.nifheim.beelzebu.coins.common.utils.BalanceCache;
 import net.nifheim.beelzebu.coins.common.utils.CacheManager;
+import net.nifheim.beelzebu.coins.common.utils.DebugCategory;
 
 /**
  * @author Beelzebu
@@ -37,17 +39,21 @@ public class PubSubMessageListener extends CoinsBungeeListener implements Listen
         switch (e.getChannel()) {
             case "Coins":
                 if (e.getMessage().equals("getExecutors")) {
-                    core.debug("Sending executors");
+                    core.debug(DebugCategory.MESSAGING, "Sending executors");
                     ProxyServer.getInstance().getServers().values().forEach((server) -> {
                         sendExecutors(server);
-                        core.debug("Sending to " + server.getName());
+                        core.debug(DebugCategory.MESSAGING, () -> "Sending to " + server.getName());
                     });
                 }
                 break;
             case "Update":
-                ProxyServer.getInstance().getServers().forEach((k, v) -> CoinsBungeeListener.sendToBukkit("Update", Collections.singletonList(e.getMessage()), v, true));
                 String[] updatemsg = e.getMessage().split(" ");
-                CacheManager.updateCoins(UUID.fromString(updatemsg[0]), Double.parseDouble(updatemsg[1]));
+                UUID uuid = UUID.fromString(updatemsg[0]);
+                double balance = Double.parseDouble(updatemsg[1]);
+                long version = updatemsg.length > 2 ? Long.parseLong(updatemsg[2]) : BalanceCache.UNKNOWN_VERSION;
+                if (CacheManager.updateCoins(uuid, balance, version)) {
+                    core.getUpdateBatcher().add(uuid, new VersionedBalance(balance, version));
+                }
                 break;
             case "Multiplier":
                 if (e.getMessage().startsWith("disable ")) {
@@ -117,6 +117,7 @@ public class Configuration extends CoinsConfig {
     private void reload(boolean canFail) {
         try {
             config = ConfigurationProvider.getProvider(YamlConfiguration.class).load(configFile);
+            invalidateSettings();
         } catch (IOException ex) {
             if (!canFail) {
                 Logger.getLogger(Configuration.class.getName()).log(Level.WARNING, "An unexpected error has ocurred reloading the config. {0}", ex.getMessage());
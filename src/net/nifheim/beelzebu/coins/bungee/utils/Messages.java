@@ -118,6 +118,7 @@ public class Messages extends MessagesManager {
     @Override
     public final void reload() {
         load(langFile);
+        clearTemplates();
     }
 
     private net.md_5.bungee.config.Configuration load(File file) {
@@ -16,37 +16,48 @@
  */
 package net.nifheim.beelzebu.coins.common;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.function.Supplier;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.ProxyServer;
-import net.nifheim.beelzebu.coins.bukkit.utils.bungee.PluginMessage;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.nifheim.beelzebu.coins.bukkit.utils.bungee.PluginMessageTransport;
 import net.nifheim.beelzebu.coins.bungee.BungeeMethods;
 import net.nifheim.beelzebu.coins.bungee.listener.CoinsBungeeListener;
-import net.nifheim.beelzebu.coins.bungee.listener.PluginMessageListener;
+import net.nifheim.beelzebu.coins.common.database.BalanceJournal;
 import net.nifheim.beelzebu.coins.common.database.Database;
 import net.nifheim.beelzebu.coins.common.database.MySQL;
+import net.nifheim.beelzebu.coins.common.database.PlayerLoader;
 import net.nifheim.beelzebu.coins.common.database.SQLite;
+import net.nifheim.beelzebu.coins.common.database.VersionedBalance;
 import net.nifheim.beelzebu.coins.common.executor.ExecutorManager;
+import net.nifheim.beelzebu.coins.common.messaging.MessageProtocol;
+import net.nifheim.beelzebu.coins.common.messaging.RedisTransport;
+import net.nifheim.beelzebu.coins.common.messaging.SyncReceiver;
+import net.nifheim.beelzebu.coins.common.messaging.SyncTransport;
+import net.nifheim.beelzebu.coins.common.messaging.UpdateBatcher;
 import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
 import net.nifheim.beelzebu.coins.common.multiplier.MultiplierData;
+import net.nifheim.beelzebu.coins.common.multiplier.MultiplierManager;
+import net.nifheim.beelzebu.coins.common.utils.BalanceCache;
 import net.nifheim.beelzebu.coins.common.utils.CacheManager;
 import net.nifheim.beelzebu.coins.common.utils.CoinsConfig;
+import net.nifheim.beelzebu.coins.common.utils.DebugCategory;
 import net.nifheim.beelzebu.coins.common.utils.FileManager;
 import net.nifheim.beelzebu.coins.common.utils.IMethods;
+import net.nifheim.beelzebu.coins.common.utils.LogWriter;
+import net.nifheim.beelzebu.coins.common.utils.MessageTemplate;
 import net.nifheim.beelzebu.coins.common.utils.MessagesManager;
 
 /**
@@ -58,8 +69,15 @@ public class CoinsCore {
     private static CoinsCore instance;
     private IMethods mi;
     private FileManager fileUpdater;
+    private LogWriter logWriter;
     private Database db;
+    private BalanceJournal balanceJournal;
+    private ExecutorService asyncExecutor;
     private ExecutorManager executorManager;
+    private MultiplierManager multiplierManager;
+    private UpdateBatcher updateBatcher;
+    private SyncTransport transport;
+    private PlayerLoader playerLoader;
     private boolean mysql;
     private HashMap<String, MessagesManager> messagesMap;
 
@@ -70,12 +88,39 @@ public class CoinsCore {
     public void setup(IMethods methodinterface) {
         mi = methodinterface;
         fileUpdater = new FileManager(this);
+        logWriter = new LogWriter(fileUpdater, new File(getDataFolder(), "logs/latest.log"), this::removeColor);
+        logWriter.start();
         fileUpdater.copyFiles();
         messagesMap = new HashMap<>();
     }
 
     public void shutdown() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            try {
+                asyncExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (multiplierManager != null) {
+            multiplierManager.shutdown();
+        }
+        if (updateBatcher != null) {
+            updateBatcher.shutdown();
+            debug("Sent " + updateBatcher.getUpdates() + " balance updates in " + updateBatcher.getFrames() + " frames, " + updateBatcher.getSaved() + " messages were saved.");
+        }
+        if (balanceJournal != null) {
+            balanceJournal.shutdown();
+        }
+        if (playerLoader != null) {
+            playerLoader.shutdown();
+        }
+        if (transport != null) {
+            transport.shutdown();
+        }
         motd(false);
+        logWriter.shutdown();
     }
 
     public void start() {
@@ -93,6 +138,39 @@ public class CoinsCore {
         }
         motd(true);
         getDatabase();
+        AtomicInteger threads = new AtomicInteger();
+        asyncExecutor = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000), rn -> {
+            Thread thread = new Thread(rn, "Coins Async Thread #" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }); // a full queue rejects the task instead of running the query in the caller's thread
+        balanceJournal = new BalanceJournal(this);
+        balanceJournal.start();
+        multiplierManager = new MultiplierManager(this);
+        multiplierManager.start();
+        // the proxy subscribes too, otherwise its cache never gets the updates that the servers publish to Redis
+        if (getConfig().getBoolean("Redis.Use", false)) {
+            transport = new RedisTransport(getConfig().getString("Redis.Host", "localhost"), getConfig().getInt("Redis.Port", 6379), getConfig().getString("Redis.Password", ""), getConfig().getString("Redis.Channel", "coins"));
+            transport.start(new SyncReceiver("Redis"));
+            log("Using Redis to send updates to the other servers.");
+        }
+        if (!isBungee()) {
+            playerLoader = new PlayerLoader(this, 250);
+            if (transport == null && getConfig().useBungee()) {
+                transport = new PluginMessageTransport();
+            }
+        } else {
+            updateBatcher = new UpdateBatcher(() -> ProxyServer.getInstance().getServers().size(), (server, frame) -> {
+                ServerInfo info = ProxyServer.getInstance().getServerInfo(server);
+                if (info != null) {
+                    CoinsBungeeListener.sendToBukkit(frame, info, true);
+                }
+            }, 50);
+        }
+        int leaderboardRefresh = getConfig().getInt("General.Leaderboard.Refresh", 30);
+        if (leaderboardRefresh > 0) {
+            mi.runAsync(() -> CacheManager.getLeaderboard().load(getDatabase().getTopPlayersData(CacheManager.getLeaderboard().getCapacity())), leaderboardRefresh * 1200);
+        }
         executorManager = new ExecutorManager();
     }
 
@@ -112,7 +190,7 @@ public class CoinsCore {
         mi.sendMessage(mi.getConsole(), rep(""));
         // Only send this in the onEnable
         if (enable) {
-            if (getConfig().getBoolean("Debug", false)) {
+            if (getConfig().getSettings().isDebug()) {
                 log("Debug mode is enabled.");
             }
             if (isMySQL()) {
@@ -123,12 +201,50 @@ public class CoinsCore {
         }
     }
 
+    public LogWriter getLogWriter() {
+        return logWriter;
+    }
+
     public IMethods getMethods() {
         return mi;
     }
 
+    /**
+     * Check if the debug messages of a category are enabled, use this before building expensive debug messages.
+     *
+     * @param category The category to check.
+     * @return true if the messages of the category should be logged.
+     */
+    public boolean isDebug(DebugCategory category) {
+        return getConfig().getSettings().isDebug(category);
+    }
+
+    /**
+     * Log a debug message only if its category is enabled.
+     *
+     * @param category The category of the message.
+     * @param msg      The message.
+     */
+    public void debug(DebugCategory category, String msg) {
+        if (isDebug(category)) {
+            debug(msg);
+        }
+    }
+
+    /**
+     * Log a debug message only if its category is enabled, the message isn't built if the category is disabled.
+     *
+     * @param category The category of the message.
+     * @param msg      The supplier of the message.
+     */
+    public void debug(DebugCategory category, Supplier<String> msg) {
+        if (isDebug(category)) {
+            debug(msg.get());
+        }
+    }
+
     public void debug(Object msg) {
-        if (getConfig().getBoolean("Debug")) {
+        if (getConfig() != null && getConfig().getSettings().isDebug()) {
             mi.sendMessage(mi.getConsole(), (rep("&8[&cCoins&8] &cDebug: &7" + msg)));
         }
         logToFile(msg);
@@ -147,18 +263,7 @@ public class CoinsCore {
     }
 
     private void logToFile(Object msg) {
-        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
-        File log = new File(getDataFolder(), "/logs/latest.log");
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(log, true))) {
-            try {
-                writer.write("[" + sdf.format(System.currentTimeMillis()) + "] " + removeColor(msg.toString()));
-                writer.newLine();
-            } finally {
-                writer.close();
-            }
-        } catch (IOException ex) {
-            Logger.getLogger(CoinsCore.class.getName()).log(Level.WARNING, "Can''t save the debug to the file", ex);
-        }
+        logWriter.write(String.valueOf(msg));
     }
 
     public boolean isOnline(UUID uuid) {
@@ -174,7 +279,14 @@ public class CoinsCore {
     }
 
     public UUID getUUID(String player) {
-        return mi.getUUID(player) != null ? mi.getUUID(player) : getDatabase().getUUID(player);
+        UUID uuid = mi.getUUID(player);
+        if (uuid != null) {
+            return uuid;
+        }
+        if (CacheManager.getMissingPlayers().contains(player)) {
+            return null;
+        }
+        return getDatabase().getUUID(player); // the database caches the nicks that aren't found
     }
 
     public Database getDatabase() {
@@ -185,6 +297,20 @@ public class CoinsCore {
         }
     }
 
+    /**
+     * Get the executor used by the asynchronous methods of the API, it has a bounded queue and when it is full the
+     * task is executed in the thread that submitted it.
+     *
+     * @return The executor for asynchronous API calls.
+     */
+    public ExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public BalanceJournal getBalanceJournal() {
+        return balanceJournal;
+    }
+
     public boolean isMySQL() {
         return mysql;
     }
@@ -193,24 +319,14 @@ public class CoinsCore {
         if (msg == null) {
             return "";
         }
-        String message = msg;
-        if (getConfig() != null) {
-            message = message.replaceAll("%prefix%", getConfig().getString("Prefix"));
-        }
-        return message.replaceAll("&", "§");
+        return MessageTemplate.translate(msg, getConfig() != null ? getConfig().getSettings().getPrefix() : null);
     }
 
     public String rep(String msg, MultiplierData multiplierData) {
-        String string = msg;
-        if (multiplierData != null) {
-            string = msg
-                    .replaceAll("%enabler%", multiplierData.getEnabler())
-                    .replaceAll("%server%", multiplierData.getServer())
-                    .replaceAll("%amount%", String.valueOf(multiplierData.getAmount()))
-                    .replaceAll("%minutes%", String.valueOf(multiplierData.getMinutes()))
-                    .replaceAll("%id%", String.valueOf(multiplierData.getID()));
+        if (msg == null) {
+            return "";
         }
-        return rep(string);
+        return MessageTemplate.compile(msg).render(placeholder -> getPlaceholder(placeholder, multiplierData));
     }
 
     public List<String> rep(List<String> msgs) {
@@ -244,54 +360,134 @@ public class CoinsCore {
         lang = lang.split("_")[0];
         if (!messagesMap.containsKey(lang)) {
             messagesMap.put(lang, mi.getMessages(lang));
-            return mi.getMessages(lang);
         }
         return messagesMap.get(lang);
     }
 
     public String getString(String path, String lang) {
-        try {
-            return rep(getMessages(lang).getString(path));
-        } catch (NullPointerException ex) {
-            mi.log("The string " + path + " does not exists in the messages_" + lang.split("_")[0] + ".yml file.");
-            debug(ex);
-            return rep(getMessages("").getString(path));
+        return getString(path, lang, null);
+    }
+
+    /**
+     * Get a message in the language of a player, if the message isn't in that language the default message is used.
+     *
+     * @param path           The path of the message.
+     * @param lang           The language of the player.
+     * @param multiplierData The multiplier used for the multiplier placeholders, may be null.
+     * @return The message with the colors and placeholders replaced, or an empty string if the message doesn't exist.
+     */
+    public String getString(String path, String lang, MultiplierData multiplierData) {
+        MessageTemplate template = getMessages(lang).getTemplate(path);
+        if (template == null) {
+            template = getMessages("").getTemplate(path);
         }
+        return template != null ? template.render(placeholder -> getPlaceholder(placeholder, multiplierData)) : "";
+    }
+
+    /**
+     * Get a list of messages in the language of a player with the colors and placeholders replaced.
+     *
+     * @see #getString(String, String, MultiplierData)
+     */
+    public List<String> getStringList(String path, String lang, MultiplierData multiplierData) {
+        return getMessages(lang).getTemplateList(path).stream().map(template -> template.render(placeholder -> getPlaceholder(placeholder, multiplierData))).collect(Collectors.toList());
+    }
+
+    private String getPlaceholder(String placeholder, MultiplierData multiplierData) {
+        if (placeholder.equals("prefix")) {
+            return getConfig() != null ? getConfig().getSettings().getPrefix() : null;
+        }
+        if (multiplierData != null) {
+            switch (placeholder) {
+                case "enabler":
+                    return multiplierData.getEnabler();
+                case "server":
+                    return multiplierData.getServer();
+                case "amount":
+                    return String.valueOf(multiplierData.getAmount());
+                case "minutes":
+                    return String.valueOf(multiplierData.getMinutes());
+                case "id":
+                    return String.valueOf(multiplierData.getID());
+                default:
+                    break;
+            }
+        }
+        return null;
     }
 
     public ExecutorManager getExecutorManager() {
         return executorManager;
     }
 
+    /**
+     * Get the loader for the players that join this server.
+     *
+     * @return The player loader, or null if this is BungeeCord.
+     */
+    public PlayerLoader getPlayerLoader() {
+        return playerLoader;
+    }
+
+    /**
+     * Get the batcher for the balance updates sent from BungeeCord to the servers.
+     *
+     * @return The update batcher, or null if this isn't BungeeCord.
+     */
+    public UpdateBatcher getUpdateBatcher() {
+        return updateBatcher;
+    }
+
+    public MultiplierManager getMultiplierManager() {
+        return multiplierManager;
+    }
+
     public boolean isBungee() {
         return mi instanceof BungeeMethods;
     }
 
     public void updateCache(UUID player, Double coins) {
-        CacheManager.updateCoins(player, coins);
-        if (isBungee()) {
-            ProxyServer.getInstance().getServers().forEach((k, v) -> PluginMessageListener.sendToBukkit("Update", Collections.singletonList(player + " " + coins), v, true));
-        } else if (getConfig().useBungee()) {
-            PluginMessage.sendToBungeeCord("Update", "updateCache " + player + " " + coins);
+        updateCache(player, coins, BalanceCache.UNKNOWN_VERSION);
+    }
+
+    /**
+     * Update the coins of a player in the cache and send them to the other servers, nothing is done if the cache has
+     * a newer version of the balance.
+     *
+     * @param player  The player to update.
+     * @param coins   The new coins of the player.
+     * @param version The version of the balance in the database.
+     */
+    public void updateCache(UUID player, Double coins, long version) {
+        if (!CacheManager.updateCoins(player, coins, version)) {
+            debug(DebugCategory.CACHE, () -> "Ignored the balance " + coins + " of " + player + " because the cached balance is newer than the version " + version + ".");
+            return;
+        }
+        if (transport != null) { // with Redis the proxy publishes to Redis like the servers do
+            transport.publish(MessageProtocol.encodeUpdate(player, coins, version));
+        } else if (isBungee()) {
+            updateBatcher.add(player, new VersionedBalance(coins, version));
+        }
+    }
+
+    /**
+     * Tell BungeeCord that this server has a player cached, so it sends the updates of the player to this server.
+     *
+     * @param player The player that was cached.
+     */
+    public void registerInterest(UUID player) {
+        if (transport != null && !transport.isBroadcast()) {
+            transport.publish(MessageProtocol.encodeInterest(player, true));
         }
     }
 
     public void updateMultiplier(Multiplier multiplier) {
         CacheManager.addMultiplier(multiplier.getServer(), multiplier);
-        List<String> message = new ArrayList<>();
-        message.add(multiplier.getServer());
-        message.add(String.valueOf(multiplier.isEnabled()));
-        message.add(multiplier.getEnabler());
-        message.add(String.valueOf(multiplier.getAmount()));
-        message.add(String.valueOf(System.currentTimeMillis() + multiplier.checkTime()));
-        if (isBungee()) {
-            ProxyServer.getInstance().getServers().keySet().forEach(server -> {
-                PluginMessageListener pml = new PluginMessageListener();
-                CoinsBungeeListener.sendToBukkit("Multiplier", message, ProxyServer.getInstance().getServerInfo(server), false);
-            });
-        } else if (getConfig().useBungee()) {
-            PluginMessage pm = new PluginMessage();
-            PluginMessage.sendToBungeeCord("Multiplier", message);
+        byte[] message = MessageProtocol.encodeMultiplier(multiplier);
+        if (transport != null) {
+            transport.publish(message);
+        } else if (isBungee()) {
+            ProxyServer.getInstance().getServers().forEach((k, v) -> CoinsBungeeListener.sendToBukkit(message, v, false));
         }
     }
 
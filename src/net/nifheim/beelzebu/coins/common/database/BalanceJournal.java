@@ -0,0 +1,317 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.database;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+import net.nifheim.beelzebu.coins.common.utils.CacheManager;
+import net.nifheim.beelzebu.coins.common.utils.DebugCategory;
+
+/**
+ * Write-behind buffer for balance additions, coalesces the coins added to every player in memory and writes them to
+ * the database as a single batch every few seconds or when too many players are pending.
+ * <p>
+ * Every addition is appended to a local journal before it is accepted, so additions that weren't flushed to the
+ * database when the server crashed are replayed the next time the plugin starts. The names of the flushed segments
+ * are saved in the same transaction as the coins, so a segment is never replayed if the server crashed after the
+ * coins were written but before the segment was deleted.
+ * </p>
+ *
+ * @author Beelzebu
+ */
+public class BalanceJournal {
+
+    private static final String EXTENSION = ".journal";
+    private final CoinsCore core;
+    private final File folder;
+    private final boolean enabled;
+    private final int maxPending;
+    private final Object flushLock = new Object();
+    private Set<UUID> flushing = Collections.emptySet(); // the players in the batch that is being written
+    private final Map<UUID, Double> pending = new HashMap<>();
+    private DataOutputStream journal;
+    private File segment;
+    private int segmentId;
+    private String journalId;
+
+    public BalanceJournal(CoinsCore core) {
+        this.core = core;
+        folder = new File(core.getDataFolder(), "journal");
+        enabled = core.getConfig().getBoolean("General.Write Behind.Enabled", false);
+        maxPending = core.getConfig().getInt("General.Write Behind.Max Pending", 500);
+    }
+
+    /**
+     * Replay the journal left by the last run and start the flush task if the write-behind is enabled.
+     */
+    public void start() {
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        if (!replay()) {
+            core.log("&cCan't read the balance journal state from the database, the write-behind is disabled until the next restart.");
+            return;
+        }
+        if (!enabled) {
+            flush();
+            return;
+        }
+        openSegment();
+        core.getMethods().runAsync(this::flush, core.getConfig().getInt("General.Write Behind.Interval", 5) * 20);
+    }
+
+    /**
+     * Flush all the pending additions and close the journal.
+     */
+    public void shutdown() {
+        flush();
+        synchronized (this) {
+            closeSegment();
+            if (segment != null && segment.length() == 0) {
+                segment.delete();
+            }
+        }
+    }
+
+    /**
+     * Add coins to a player without waiting for the database, the coins are added to the cache and written to the
+     * database in the next flush.
+     *
+     * @param uuid  The player to add the coins.
+     * @param coins The coins to add.
+     * @return true if the coins were accepted, false if the caller must write them directly to the database because
+     * the write-behind is disabled, the player isn't cached or the journal can't be written.
+     */
+    public boolean addCoins(UUID uuid, double coins) {
+        boolean flush;
+        VersionedBalance balance;
+        synchronized (this) {
+            if (!enabled || journal == null) {
+                return false;
+            }
+            // the coins are added to the cached balance keeping its version, so a newer balance is never replaced
+            balance = CacheManager.getPlayersData().add(uuid, coins);
+            if (balance.getBalance() == -1) {
+                return false;
+            }
+            try {
+                journal.writeLong(uuid.getMostSignificantBits());
+                journal.writeLong(uuid.getLeastSignificantBits());
+                journal.writeDouble(coins);
+                journal.flush();
+            } catch (IOException ex) {
+                CacheManager.getPlayersData().add(uuid, -coins);
+                core.log("Can't write to the balance journal, the coins will be added directly to the database.");
+                core.debug(ex.getMessage());
+                return false;
+            }
+            pending.merge(uuid, coins, Double::sum);
+            flush = pending.size() >= maxPending;
+        }
+        core.updateCache(uuid, balance.getBalance(), balance.getVersion());
+        core.getMethods().callCoinsChangeEvent(uuid, balance.getBalance() - coins, balance.getBalance());
+        if (flush) {
+            core.getMethods().runAsync(this::flush);
+        }
+        return true;
+    }
+
+    /**
+     * Get the coins added to a player that weren't flushed to the database yet.
+     *
+     * @param uuid The player to check.
+     * @return The pending coins for the player.
+     */
+    public synchronized double getPending(UUID uuid) {
+        return pending.getOrDefault(uuid, 0D);
+    }
+
+    /**
+     * Flush the pending additions if the player has any, this must be called before any write to the balance of the
+     * player that isn't an addition. If the additions of the player are being written by another flush, this waits
+     * until they are in the database.
+     *
+     * @param uuid The player to check.
+     */
+    public void flush(UUID uuid) {
+        if (uuid == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!pending.containsKey(uuid) && !flushing.contains(uuid)) {
+                return;
+            }
+        }
+        flush(); // waits for the running flush, and writes the coins again if it failed
+    }
+
+    /**
+     * Write all the pending additions to the database in a single batch.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<UUID, Double> batch;
+            List<File> segments;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new HashMap<>(pending);
+                pending.clear();
+                flushing = batch.keySet();
+                if (enabled) { // new additions go to a new segment while this batch is written
+                    closeSegment();
+                    openSegment();
+                }
+                segments = getSegments();
+            }
+            boolean written = core.getDatabase().addCoins(batch, segments.stream().map(this::getKey).collect(Collectors.toList()));
+            synchronized (this) {
+                if (!written) {
+                    batch.forEach((uuid, coins) -> pending.merge(uuid, coins, Double::sum));
+                }
+                flushing = Collections.emptySet();
+            }
+            if (written) {
+                segments.forEach(File::delete);
+                core.getDatabase().removeCommittedSegments(journalId);
+                core.debug(DebugCategory.DATABASE, () -> "Flushed the pending coins of " + batch.size() + " players to the database.");
+            } else {
+                core.log("Can't flush the pending coins to the database, they will be retried in the next flush.");
+            }
+        }
+    }
+
+    /**
+     * Read the segments left by the last run, the segments that were already written to the database are deleted
+     * without reading them.
+     *
+     * @return false if the committed segments can't be read from the database, in that case nothing is replayed.
+     */
+    private boolean replay() {
+        journalId = loadJournalId();
+        Set<String> committed = journalId != null ? core.getDatabase().getCommittedSegments(journalId) : null;
+        if (committed == null) {
+            return false;
+        }
+        List<File> segments = getSegments();
+        for (File file : segments) {
+            try {
+                segmentId = Math.max(segmentId, Integer.parseInt(file.getName().replace(EXTENSION, "")) + 1);
+            } catch (NumberFormatException ignore) {
+            }
+            if (committed.contains(getKey(file))) {
+                file.delete();
+                core.debug(DebugCategory.DATABASE, () -> "The journal segment " + file.getName() + " was already written to the database.");
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    UUID uuid = new UUID(in.readLong(), in.readLong());
+                    pending.merge(uuid, in.readDouble(), Double::sum);
+                }
+            } catch (EOFException ignore) { // end of the segment, or a partial record if the server crashed while writing it
+            } catch (IOException ex) {
+                core.log("Can't read the balance journal segment " + file.getName());
+                core.debug(ex.getMessage());
+            }
+        }
+        if (!committed.isEmpty()) {
+            core.getDatabase().removeCommittedSegments(journalId);
+        }
+        if (!pending.isEmpty()) {
+            core.log("Replaying the coins of " + pending.size() + " players from the balance journal.");
+        }
+        return true;
+    }
+
+    private String getKey(File segment) {
+        return journalId + ":" + segment.getName();
+    }
+
+    /**
+     * Get the id of this journal, so servers that share the database don't mark the segments of other servers as
+     * committed.
+     */
+    private String loadJournalId() {
+        File idFile = new File(folder, "journal.id");
+        try {
+            if (idFile.exists()) {
+                List<String> lines = Files.readAllLines(idFile.toPath(), StandardCharsets.UTF_8);
+                if (!lines.isEmpty() && !lines.get(0).trim().isEmpty()) {
+                    return lines.get(0).trim();
+                }
+            }
+            String id = UUID.randomUUID().toString();
+            Files.write(idFile.toPath(), Collections.singletonList(id), StandardCharsets.UTF_8);
+            return id;
+        } catch (IOException ex) {
+            core.log("Can't read the id of the balance journal.");
+            core.debug(ex.getMessage());
+            return null;
+        }
+    }
+
+    private List<File> getSegments() {
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(EXTENSION) && (segment == null || !name.equals(segment.getName())));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    private void openSegment() {
+        segment = new File(folder, String.format("%08d", segmentId++) + EXTENSION);
+        try {
+            journal = new DataOutputStream(new FileOutputStream(segment, true));
+        } catch (IOException ex) {
+            journal = null;
+            core.log("Can't open the balance journal, the coins will be added directly to the database.");
+            core.debug(ex.getMessage());
+        }
+    }
+
+    private void closeSegment() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                core.debug(ex.getMessage());
+            }
+            journal = null;
+        }
+    }
+}
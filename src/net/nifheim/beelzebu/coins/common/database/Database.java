@@ -16,14 +16,21 @@
  */
 package net.nifheim.beelzebu.coins.common.database;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
 
@@ -36,9 +43,9 @@ public interface Database {
 
     Double getCoins(String player);
 
-    void addCoins(String player, Double coins);
+    double addCoins(String player, Double coins);
 
-    void takeCoins(String player, Double coins);
+    double takeCoins(String player, Double coins);
 
     void resetCoins(String player);
 
@@ -48,9 +55,9 @@ public interface Database {
 
     Double getCoins(UUID player);
 
-    void addCoins(UUID player, Double coins);
+    double addCoins(UUID player, Double coins);
 
-    void takeCoins(UUID player, Double coins);
+    double takeCoins(UUID player, Double coins);
 
     void resetCoins(UUID player);
 
@@ -58,13 +65,84 @@ public interface Database {
 
     boolean isindb(UUID player);
 
+    /**
+     * Add coins to many players in a single batch, the segments of the balance journal that contain the batch are
+     * saved in the same transaction so they are never replayed after the batch was written.
+     *
+     * @param coins    The coins to add to every player.
+     * @param segments The journal segments of the batch.
+     * @return true if the batch was written to the database, false otherwise.
+     */
+    boolean addCoins(Map<UUID, Double> coins, Collection<String> segments);
+
+    /**
+     * Get the journal segments that were already written to the database.
+     *
+     * @param journal The id of the journal, segments are saved as {@code <journal>:<segment>}.
+     * @return The committed segments of the journal, or null if they can't be read.
+     */
+    Set<String> getCommittedSegments(String journal);
+
+    /**
+     * Remove the committed segments of a journal, must be called after the segment files were deleted.
+     *
+     * @param journal The id of the journal.
+     */
+    void removeCommittedSegments(String journal);
+
+    /**
+     * Move coins from a player to another in a single transaction, the coins are only taken if the sender has enough
+     * coins and both players exist in the database.
+     *
+     * @param from   The player to take the coins.
+     * @param to     The player to give the coins.
+     * @param amount The amount of coins to move.
+     * @return The result of the transfer with the new balance of both players.
+     */
+    TransferResult transfer(UUID from, UUID to, double amount);
+
+    /**
+     * Take coins from a player only if he has enough coins, the check and the take are a single update so two
+     * concurrent purchases can't both pass the check.
+     *
+     * @param player The player to take the coins.
+     * @param coins  The coins to take.
+     * @return The new balance of the player, or -1 if the player doesn't have enough coins or isn't in the database.
+     */
+    double spendCoins(UUID player, double coins);
+
     @Deprecated
     List<String> getTop(int top);
 
     Map<String, Double> getTopPlayers(int top);
 
+    /**
+     * Get the players with the most coins with their uuid.
+     *
+     * @param top The max amount of players to get.
+     * @return The nick and uuid of the players separated by a comma and their balance, ordered from the highest
+     * balance.
+     */
+    Map<String, Double> getTopPlayersData(int top);
+
+    /**
+     * Create a player or update his nick and uuid if it is already in the database.
+     *
+     * @param c       The connection to use, it isn't closed.
+     * @param player  The nick of the player.
+     * @param uuid    The uuid of the player.
+     * @param balance The balance for the player if it is created.
+     */
     void createPlayer(Connection c, String player, UUID uuid, double balance);
 
+    /**
+     * Load many players with a single query and put their balances in the cache, the nick and last login of the players
+     * are updated and if the players should be created when they join the missing players are created.
+     *
+     * @param players The uuid and nick of every player to load.
+     */
+    void loadPlayers(Map<UUID, String> players);
+
     Connection getConnection() throws SQLException;
 
     String getNick(UUID uuid);
@@ -77,12 +155,34 @@ public interface Database {
 
     enum SQLQuery {
         SEARCH_USER_ONLINE("SELECT * FROM `" + Database.prefix + "Data` WHERE uuid = ?;"),
+        SEARCH_USERS_ONLINE("SELECT * FROM `" + Database.prefix + "Data` WHERE uuid IN (%s);"),
         SEARCH_USER_OFFLINE("SELECT * FROM `" + Database.prefix + "Data` WHERE nick = ?;"),
         CREATE_USER("INSERT INTO `" + Database.prefix + "Data` (`uuid`, `nick`, `balance`, `lastlogin`) VALUES (?, ?, ?, ?);"),
+        UPSERT_USER("INSERT INTO `" + Database.prefix + "Data` (`uuid`, `nick`, `balance`, `lastlogin`) VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE nick = VALUES(nick), lastlogin = VALUES(lastlogin);"),
+        CREATE_USER_IGNORE("INSERT OR IGNORE INTO `" + Database.prefix + "Data` (`uuid`, `nick`, `balance`, `lastlogin`) VALUES (?, ?, ?, ?);"),
         UPDATE_USER_ONLINE("UPDATE `" + Database.prefix + "Data` SET nick = ?, lastlogin = ? WHERE uuid = ?;"),
         UPDATE_USER_OFFLINE("UPDATE `" + Database.prefix + "Data` SET uuid = ?, lastlogin = ? WHERE nick = ?;"),
-        UPDATE_COINS_ONLINE("UPDATE `" + Database.prefix + "Data` SET balance = ? WHERE uuid = ?;"),
-        UPDATE_COINS_OFFLINE("UPDATE `" + Database.prefix + "Data` SET balance = ? WHERE nick = ?;"),
+        UPDATE_COINS_ONLINE("UPDATE `" + Database.prefix + "Data` SET balance = ?, version = version + 1 WHERE uuid = ?;"),
+        UPDATE_COINS_OFFLINE("UPDATE `" + Database.prefix + "Data` SET balance = ?, version = version + 1 WHERE nick = ?;"),
+        ADD_COINS_ONLINE("UPDATE `" + Database.prefix + "Data` SET balance = balance + ?, version = version + 1 WHERE uuid = ?;"),
+        ADD_COINS_OFFLINE("UPDATE `" + Database.prefix + "Data` SET balance = balance + ?, version = version + 1 WHERE nick = ?;"),
+        TAKE_COINS_ONLINE("UPDATE `" + Database.prefix + "Data` SET balance = CASE WHEN balance > ? THEN balance - ? ELSE 0 END, version = version + 1 WHERE uuid = ?;"),
+        TAKE_COINS_OFFLINE("UPDATE `" + Database.prefix + "Data` SET balance = CASE WHEN balance > ? THEN balance - ? ELSE 0 END, version = version + 1 WHERE nick = ?;"),
+        // mysql only, the balance before the update is kept in a session variable and read with SEARCH_USER_TRACKED_*
+        TAKE_COINS_TRACKED_ONLINE("UPDATE `" + Database.prefix + "Data` SET balance = CASE WHEN (@coins_before := balance) > ? THEN balance - ? ELSE 0 END, version = version + 1 WHERE uuid = ?;"),
+        TAKE_COINS_TRACKED_OFFLINE("UPDATE `" + Database.prefix + "Data` SET balance = CASE WHEN (@coins_before := balance) > ? THEN balance - ? ELSE 0 END, version = version + 1 WHERE nick = ?;"),
+        SEARCH_USER_TRACKED_ONLINE("SELECT *, @coins_before AS before_balance FROM `" + Database.prefix + "Data` WHERE uuid = ?;"),
+        SEARCH_USER_TRACKED_OFFLINE("SELECT *, @coins_before AS before_balance FROM `" + Database.prefix + "Data` WHERE nick = ?;"),
+        TRANSFER_TAKE("UPDATE `" + Database.prefix + "Data` SET balance = balance - ?, version = version + 1 WHERE uuid = ? AND balance >= ?;"),
+        SELECT_ALL("SELECT * FROM `" + Database.prefix + "Data`;"),
+        SELECT_MULTIPLIERS("SELECT * FROM `" + Database.prefix + "Multipliers`;"),
+        CREATE_MULTIPLIER("INSERT INTO `" + Database.prefix + "Multipliers` (`uuid`, `multiplier`, `queue`, `minutes`, `endtime`, `server`, `enabled`) VALUES (?, ?, -1, ?, 0, ?, ?);"),
+        ENABLE_MULTIPLIER("UPDATE `" + Database.prefix + "Multipliers` SET endtime = ?, enabled = ? WHERE id = ?;"),
+        QUEUE_MULTIPLIER("UPDATE `" + Database.prefix + "Multipliers` SET queue = ? WHERE id = ?;"),
+        DELETE_MULTIPLIER("DELETE FROM `" + Database.prefix + "Multipliers` WHERE id = ?;"),
+        INSERT_JOURNAL_SEGMENT("INSERT INTO `" + Database.prefix + "Journal` (`segment`) VALUES (?);"),
+        SELECT_JOURNAL_SEGMENTS("SELECT `segment` FROM `" + Database.prefix + "Journal` WHERE `segment` LIKE ?;"),
+        DELETE_JOURNAL_SEGMENTS("DELETE FROM `" + Database.prefix + "Journal` WHERE `segment` LIKE ?;"),
         SELECT_TOP("SELECT * FROM `" + Database.prefix + "Data` ORDER BY balance DESC LIMIT ?;");
 
         private final String name;
@@ -94,41 +194,185 @@ public interface Database {
 
     class Utils {
 
+        private static final AtomicLong PREPARED_STATEMENTS = new AtomicLong();
+        private static volatile StatementCache statementCache;
+
         static <K, V extends Comparable<? super V>> Map<K, V> sortByValue(Map<K, V> map) {
             return map.entrySet().stream().sorted(Map.Entry.comparingByValue(Collections.reverseOrder())).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
         }
 
+        /**
+         * Prepare a query and bind the parameters, the caller must close the statement.
+         *
+         * @param c          The connection to prepare the statement.
+         * @param query      The query to prepare.
+         * @param parameters The parameters for the query, uuids are saved as strings.
+         * @return The prepared statement.
+         * @throws SQLException if the statement can't be prepared or a parameter can't be bound.
+         */
         public static PreparedStatement generatePreparedStatement(Connection c, SQLQuery query, Object... parameters) throws SQLException {
-            PreparedStatement ps = c.prepareStatement(query.name);
-            try {
-                if (parameters.length > 0) {
-                    for (int i = 1; i <= parameters.length; i++) {
-                        Object parameter = parameters[i - 1];
-                        if (parameter == null) {
-                            throw new IllegalArgumentException("The parameter can't be null.");
+            return bind(prepare(c, query.name), query, parameters);
+        }
+
+        /**
+         * Execute an update and close the statement.
+         *
+         * @return The number of updated rows.
+         * @see #generatePreparedStatement(Connection, SQLQuery, Object...)
+         */
+        public static int executeUpdate(Connection c, SQLQuery query, Object... parameters) throws SQLException {
+            StatementCache cache = statementCache;
+            PreparedStatement cached = cache != null ? cache.checkout(c, query.name) : null;
+            if (cached != null) {
+                try {
+                    return bind(cached, query, parameters).executeUpdate();
+                } finally {
+                    cache.release(cached);
+                }
+            }
+            try (PreparedStatement ps = generatePreparedStatement(c, query, parameters)) {
+                return ps.executeUpdate();
+            }
+        }
+
+        /**
+         * Execute a query, the statement is closed when the returned result set is closed.
+         *
+         * @return The result of the query.
+         * @see #generatePreparedStatement(Connection, SQLQuery, Object...)
+         */
+        public static ResultSet executeQuery(Connection c, SQLQuery query, Object... parameters) throws SQLException {
+            StatementCache cache = statementCache;
+            PreparedStatement cached = cache != null ? cache.checkout(c, query.name) : null;
+            if (cached != null) {
+                try {
+                    ResultSet res = bind(cached, query, parameters).executeQuery();
+                    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                            try {
+                                res.close();
+                            } finally {
+                                cache.release(cached); // closing the result set returns the statement to the cache
+                            }
+                            return null;
                         }
-                        if (parameter instanceof String) {
-                            ps.setString(i, parameter.toString());
-                        } else if (parameter instanceof UUID) {
-                            ps.setString(i, parameter.toString());
-                        } else if (parameter instanceof Integer) {
-                            ps.setInt(i, (int) parameter);
-                        } else if (parameter instanceof Long) {
-                            ps.setLong(i, (long) parameter);
-                        } else if (parameter instanceof Double) {
-                            ps.setDouble(i, (double) parameter);
-                        } else {
-                            CoinsCore.getInstance().debug("We can't put the object '" + parameter.toString() + "' in the query.");
+                        try {
+                            return method.invoke(res, args);
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getCause();
                         }
-                    }
+                    });
+                } catch (SQLException | RuntimeException ex) {
+                    cache.release(cached);
+                    throw ex;
                 }
+            }
+            PreparedStatement ps = generatePreparedStatement(c, query, parameters);
+            try {
+                ps.closeOnCompletion();
+                return ps.executeQuery();
+            } catch (SQLException ex) {
+                ps.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Execute a query with an IN list, the %s in the query is replaced with a parameter for every value. The
+         * statement is closed when the returned result set is closed.
+         *
+         * @return The result of the query.
+         */
+        public static ResultSet executeQuery(Connection c, SQLQuery query, Collection<?> values) throws SQLException {
+            String parameters = String.join(", ", Collections.nCopies(values.size(), "?"));
+            PreparedStatement ps = bind(prepare(c, query.name.replace("%s", parameters)), query, values.toArray()); // not cached, the query changes with the size
+            try {
+                ps.closeOnCompletion();
+                return ps.executeQuery();
             } catch (SQLException ex) {
-                CoinsCore.getInstance().log("An internal error has ocurred while trying to execute a query in the database, check the logs to get more information.");
-                CoinsCore.getInstance().debug("The error code is: '" + ex.getErrorCode() + "'");
-                CoinsCore.getInstance().debug("The error message is: '" + ex.getMessage() + "'");
-                CoinsCore.getInstance().debug("Query: " + query.name);
+                ps.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Execute an insert and close the statement.
+         *
+         * @return The key generated by the database for the inserted row, or -1 if there is no key.
+         * @see #generatePreparedStatement(Connection, SQLQuery, Object...)
+         */
+        public static long executeInsert(Connection c, SQLQuery query, Object... parameters) throws SQLException {
+            PREPARED_STATEMENTS.incrementAndGet();
+            try (PreparedStatement ps = bind(c.prepareStatement(query.name, Statement.RETURN_GENERATED_KEYS), query, parameters)) {
+                ps.executeUpdate();
+                try (ResultSet res = ps.getGeneratedKeys()) {
+                    return res.next() ? res.getLong(1) : -1;
+                }
+            }
+        }
+
+        /**
+         * Prepare a statement and count it, every statement prepared by the plugin goes through here.
+         */
+        static PreparedStatement prepare(Connection c, String sql) throws SQLException {
+            PREPARED_STATEMENTS.incrementAndGet();
+            return c.prepareStatement(sql);
+        }
+
+        private static PreparedStatement bind(PreparedStatement ps, SQLQuery query, Object... parameters) throws SQLException {
+            try {
+                for (int i = 0; i < parameters.length; i++) {
+                    Object parameter = parameters[i];
+                    if (parameter == null) {
+                        throw new IllegalArgumentException("The parameter can't be null.");
+                    }
+                    ps.setObject(i + 1, parameter instanceof UUID ? parameter.toString() : parameter);
+                }
+            } catch (SQLException | RuntimeException ex) {
+                ps.close();
+                if (ex instanceof SQLException) {
+                    CoinsCore.getInstance().log("An internal error has ocurred while trying to execute a query in the database, check the logs to get more information.");
+                    CoinsCore.getInstance().debug("The error code is: '" + ((SQLException) ex).getErrorCode() + "'");
+                    CoinsCore.getInstance().debug("The error message is: '" + ex.getMessage() + "'");
+                    CoinsCore.getInstance().debug("Query: " + query.name);
+                }
+                throw ex;
             }
             return ps;
         }
+
+        /**
+         * Get the amount of statements prepared since the plugin was enabled.
+         *
+         * @return The amount of prepared statements.
+         */
+        public static long getPreparedStatements() {
+            return PREPARED_STATEMENTS.get();
+        }
+
+        /**
+         * Get the amount of times that a cached statement was used instead of preparing a new one, it's always 0 when
+         * the driver caches the statements itself.
+         *
+         * @return The amount of reused statements.
+         */
+        public static long getReusedStatements() {
+            StatementCache cache = statementCache;
+            return cache != null ? cache.getHits() : 0;
+        }
+
+        /**
+         * Set the cache used for the statements of {@link #executeQuery(Connection, SQLQuery, Object...)} and
+         * {@link #executeUpdate(Connection, SQLQuery, Object...)}, or null to prepare a new statement every time.
+         *
+         * @param cache The cache to use.
+         */
+        static void setStatementCache(StatementCache cache) {
+            StatementCache old = statementCache;
+            statementCache = cache;
+            if (old != null) {
+                old.clear();
+            }
+        }
     }
 }
@@ -19,18 +19,23 @@ package net.nifheim.beelzebu.coins.common.database;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import net.nifheim.beelzebu.coins.CoinsAPI;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
 import net.nifheim.beelzebu.coins.common.utils.CacheManager;
+import net.nifheim.beelzebu.coins.common.utils.DebugCategory;
 
 /**
  * @author Beelzebu
@@ -64,7 +69,7 @@ public class MySQL implements Database {
         setupDatabase();
         updateDatabase();
         core.getMethods().runAsync(() -> {
-            core.debug("Checking the database connection ...");
+            core.debug(DebugCategory.DATABASE, "Checking the database connection ...");
             if (ds == null || !ds.isRunning() || ds.isClosed()) {
                 setupDatabase();
             }
@@ -77,7 +82,7 @@ public class MySQL implements Database {
                         }
                         setupDatabase();
                     } else {
-                        core.debug("The connection to the database is still active.");
+                        core.debug(DebugCategory.DATABASE, "The connection to the database is still active.");
                     }
                 } finally {
                     if (c != null) {
@@ -96,16 +101,20 @@ public class MySQL implements Database {
         hc.setPoolName("Coins MySQL Connection Pool");
         hc.setDriverClassName("com.mysql.jdbc.Driver");
         hc.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + name + "?autoReconnect=true&useSSL=false");
+        // Connector/J caches the statements per physical connection, so the plugin doesn't use its own StatementCache.
+        // 250 statements fit every query and the IN lists of the usual sizes, the IN lists longer than 2048 chars
+        // (about 650 players) aren't cached because they're never prepared twice.
         hc.addDataSourceProperty("cachePrepStmts", "true");
         hc.addDataSourceProperty("useServerPrepStmts", "true");
         hc.addDataSourceProperty("prepStmtCacheSize", "250");
         hc.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        hc.addDataSourceProperty("rewriteBatchedStatements", "true");
         hc.addDataSourceProperty("characterEncoding", "utf8");
         hc.addDataSourceProperty("encoding", "UTF-8");
         hc.addDataSourceProperty("useUnicode", "true");
         hc.setUsername(user);
         hc.setPassword(passwd);
-        hc.setMaxLifetime(60000);
+        hc.setMaxLifetime(600000); // the driver's statement cache is lost with the connection, keep it below wait_timeout
         hc.setMinimumIdle(4);
         hc.setIdleTimeout(30000);
         hc.setConnectionTimeout(10000);
@@ -126,42 +135,61 @@ public class MySQL implements Database {
     }
 
     public void updateDatabase() {
-        try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
-            core.debug("A database connection was opened.");
-            try {
-                DatabaseMetaData md = c.getMetaData();
-                String Data
-                        = "CREATE TABLE IF NOT EXISTS `" + Database.prefix + "Data`"
-                        + "(`uuid` VARCHAR(50) NOT NULL,"
-                        + "`nick` VARCHAR(50) NOT NULL,"
-                        + "`balance` DOUBLE NOT NULL,"
-                        + "`lastlogin` LONG NOT NULL,"
-                        + "PRIMARY KEY (`uuid`));";
-                String Multiplier = "CREATE TABLE IF NOT EXISTS `" + Database.prefix + "Multipliers`"
-                        + "(`id` INT NOT NULL AUTO_INCREMENT,"
-                        + "`uuid` VARCHAR(50) NOT NULL,"
-                        + "`multiplier` INT,"
-                        + "`queue` INT,"
-                        + "`minutes` INT,"
-                        + "`endtime` LONG,"
-                        + "`server` VARCHAR(50),"
-                        + "`enabled` BOOLEAN,"
-                        + "PRIMARY KEY (`id`));";
-                st.executeUpdate(Data);
-                core.debug("The data table was updated.");
-                st.executeUpdate(Multiplier);
-                if (!isColumnMissing(md, "Multipliers", "starttime")) {
-                    st.executeUpdate("ALTER TABLE `" + Database.prefix + "Multipliers` DROP COLUMN starttime;");
+        try (Connection c = ds.getConnection()) {
+            core.debug(DebugCategory.DATABASE, "A database connection was opened.");
+            new SchemaMigrator(core).add("Create the data and multipliers tables", con -> {
+                try (Statement st = con.createStatement()) {
+                    st.executeUpdate("CREATE TABLE IF NOT EXISTS `" + Database.prefix + "Data`"
+                            + "(`uuid` VARCHAR(50) NOT NULL,"
+                            + "`nick` VARCHAR(50) NOT NULL,"
+                            + "`balance` DOUBLE NOT NULL,"
+                            + "`lastlogin` LONG NOT NULL,"
+                            + "PRIMARY KEY (`uuid`));");
+                    st.executeUpdate("CREATE TABLE IF NOT EXISTS `" + Database.prefix + "Multipliers`"
+                            + "(`id` INT NOT NULL AUTO_INCREMENT,"
+                            + "`uuid` VARCHAR(50) NOT NULL,"
+                            + "`multiplier` INT,"
+                            + "`queue` INT,"
+                            + "`minutes` INT,"
+                            + "`endtime` LONG,"
+                            + "`server` VARCHAR(50),"
+                            + "`enabled` BOOLEAN,"
+                            + "PRIMARY KEY (`id`));");
+                    if (SchemaMigrator.hasColumn(con, "Multipliers", "starttime")) {
+                        st.executeUpdate("ALTER TABLE `" + Database.prefix + "Multipliers` DROP COLUMN starttime;");
+                    }
                 }
-                core.debug("The multipliers table was updated");
-                if (core.getConfig().getBoolean("General.Purge.Enabled", true) && core.getConfig().getInt("General.Purge.Days") > 0) {
+            }).add("Add indexes for nick, balance and active multipliers", con -> {
+                try (Statement st = con.createStatement()) {
+                    if (!SchemaMigrator.hasIndex(con, "Data", "idx_nick")) {
+                        st.executeUpdate("CREATE INDEX `idx_nick` ON `" + Database.prefix + "Data` (`nick`);");
+                    }
+                    if (!SchemaMigrator.hasIndex(con, "Data", "idx_balance")) {
+                        st.executeUpdate("CREATE INDEX `idx_balance` ON `" + Database.prefix + "Data` (`balance`);");
+                    }
+                    if (!SchemaMigrator.hasIndex(con, "Multipliers", "idx_server_enabled_queue")) {
+                        st.executeUpdate("CREATE INDEX `idx_server_enabled_queue` ON `" + Database.prefix + "Multipliers` (`server`, `enabled`, `queue`);");
+                    }
+                }
+            }).add("Add a version to the balances", con -> {
+                if (!SchemaMigrator.hasColumn(con, "Data", "version")) {
+                    try (Statement st = con.createStatement()) {
+                        st.executeUpdate("ALTER TABLE `" + Database.prefix + "Data` ADD COLUMN `version` BIGINT NOT NULL DEFAULT 0;");
+                    }
+                }
+            }).add("Add the table for the committed balance journal segments", con -> {
+                try (Statement st = con.createStatement()) {
+                    st.executeUpdate("CREATE TABLE IF NOT EXISTS `" + Database.prefix + "Journal`"
+                            + "(`segment` VARCHAR(100) NOT NULL,"
+                            + "PRIMARY KEY (`segment`));");
+                }
+            }).migrate(c);
+            core.debug(DebugCategory.DATABASE, "The database schema is up to date.");
+            if (core.getConfig().getBoolean("General.Purge.Enabled", true) && core.getConfig().getInt("General.Purge.Days") > 0) {
+                try (Statement st = c.createStatement()) {
                     st.executeUpdate("DELETE FROM " + Database.prefix + "Data WHERE lastlogin < " + (System.currentTimeMillis() - (core.getConfig().getInt("General.Purge.Days", 60) * 86400000L)) + ";");
-                    core.debug("Inactive users were removed from the database.");
                 }
-            } finally {
-                st.close();
-                c.close();
-                core.debug("The connection was closed.");
+                core.debug(DebugCategory.DATABASE, "Inactive users were removed from the database.");
             }
         } catch (SQLException ex) {
             core.log("Something was wrong creating the default databases. Please check the debug log.");
@@ -172,50 +200,99 @@ public class MySQL implements Database {
     @Override
     public void createPlayer(Connection c, String name, UUID uuid, double balance) {
         try {
-            core.debug("A database connection was opened.");
-            ResultSet res = null;
+            createOrUpdatePlayer(c, name, uuid, balance);
+            CacheManager.playerCreated(uuid, name);
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred creating the player: " + name + " in the database.");
+            core.debug(ex);
+        }
+    }
+
+    private void createOrUpdatePlayer(Connection c, String name, UUID uuid, double balance) throws SQLException {
+        core.debug(DebugCategory.DATABASE, "Trying to create or update data.");
+        if (core.getConfig().getSettings().isOnlineMode()) {
+            core.debug(DebugCategory.DATABASE, "Preparing to create or update an entry for online mode.");
+            Utils.executeUpdate(c, SQLQuery.UPSERT_USER, uuid, name, balance, System.currentTimeMillis());
+            try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, uuid)) {
+                if (res.next()) {
+                    CacheManager.updateCoins(uuid, res.getDouble("balance"), res.getLong("version"));
+                }
+            }
+            core.debug(DebugCategory.DATABASE, () -> "An entry in the database was created or updated for: " + name);
+        } else {
+            core.debug(DebugCategory.DATABASE, "Preparing to create or update an entry for offline mode.");
+            try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_OFFLINE, name)) {
+                if (res.next()) {
+                    CacheManager.updateCoins(uuid, res.getDouble("balance"), res.getLong("version"));
+                    Utils.executeUpdate(c, SQLQuery.UPDATE_USER_OFFLINE, uuid, System.currentTimeMillis(), name);
+                    core.debug(DebugCategory.DATABASE, () -> "The uuid of: " + core.getNick(uuid) + " was updated in the database.");
+                    return;
+                }
+            }
+            try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, uuid)) {
+                if (res.next()) {
+                    core.log("Looks like " + name + " changed his name, his old name was: " + res.getString("nick") + ". We'll update it in the database.");
+                    Utils.executeUpdate(c, SQLQuery.UPDATE_USER_ONLINE, name, System.currentTimeMillis(), uuid);
+                    core.debug(DebugCategory.DATABASE, () -> "Updated nick for " + name + " in the database.");
+                    CacheManager.updateCoins(uuid, res.getDouble("balance"), res.getLong("version")); // changing the nick doesn't change the version
+                    return;
+                }
+            }
+            Utils.executeUpdate(c, SQLQuery.CREATE_USER, uuid, name, balance, System.currentTimeMillis());
+            core.debug(DebugCategory.DATABASE, () -> "An entry in the database was created for: " + name);
+        }
+    }
+
+    @Override
+    public void loadPlayers(Map<UUID, String> players) {
+        Map<UUID, String> missing = new HashMap<>(players);
+        long now = System.currentTimeMillis();
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
             try {
-                core.debug("Trying to create or update data.");
-                if (core.getConfig().getBoolean("Online Mode")) {
-                    core.debug("Preparing to create or update an entry for online mode.");
-                    res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_ONLINE, uuid).executeQuery();
-                    if (!res.next()) {
-                        Utils.generatePreparedStatement(c, SQLQuery.CREATE_USER, uuid, name, balance, System.currentTimeMillis()).executeUpdate();
-                        core.debug("An entry in the database was created for: " + name);
-                    } else {
-                        Utils.generatePreparedStatement(c, SQLQuery.UPDATE_USER_ONLINE, name, System.currentTimeMillis(), uuid).executeUpdate();
-                        CacheManager.updateCoins(uuid, getCoins(uuid));
-                        core.debug("The nickname of: " + name + " was updated in the database.");
+                try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USERS_ONLINE, players.keySet()); PreparedStatement ps = Utils.generatePreparedStatement(c, SQLQuery.UPDATE_USER_ONLINE)) {
+                    while (res.next()) {
+                        UUID uuid = UUID.fromString(res.getString("uuid"));
+                        missing.remove(uuid);
+                        CacheManager.updateCoins(uuid, res.getDouble("balance"), res.getLong("version"));
+                        ps.setString(1, players.get(uuid));
+                        ps.setLong(2, now);
+                        ps.setString(3, uuid.toString());
+                        ps.addBatch();
                     }
-                } else {
-                    core.debug("Preparing to create or update an entry for offline mode.");
-                    res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_OFFLINE, name).executeQuery();
-                    if (!res.next()) {
-                        res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_ONLINE, uuid).executeQuery();
-                        if (res.next()) {
-                            core.log("Looks like " + name + " changed his name, his old name was: " + res.getString("nick") + ". We'll update it in the database.");
-                            Utils.generatePreparedStatement(c, SQLQuery.UPDATE_USER_ONLINE, name, System.currentTimeMillis(), uuid).executeUpdate();
-                            core.debug("Updated nick for " + name + " in the database.");
-                            CacheManager.updateCoins(uuid, res.getDouble("balance"));
-                            return;
+                    ps.executeBatch();
+                }
+                if (!missing.isEmpty() && core.getConfig().getSettings().isCreateJoin()) {
+                    double balance = core.getConfig().getSettings().getStartingCoins();
+                    // another server may create the same players at the same time, so existing rows are kept
+                    try (PreparedStatement ps = Utils.generatePreparedStatement(c, SQLQuery.UPSERT_USER)) {
+                        for (Map.Entry<UUID, String> entry : missing.entrySet()) {
+                            ps.setString(1, entry.getKey().toString());
+                            ps.setString(2, entry.getValue());
+                            ps.setDouble(3, balance);
+                            ps.setLong(4, now);
+                            ps.addBatch();
                         }
-                        Utils.generatePreparedStatement(c, SQLQuery.CREATE_USER, uuid, name, balance, System.currentTimeMillis()).executeUpdate();
-                        core.debug("An entry in the database was created for: " + name);
-                    } else {
-                        Utils.generatePreparedStatement(c, SQLQuery.UPDATE_USER_OFFLINE, uuid, System.currentTimeMillis(), name).executeUpdate();
-                        CacheManager.updateCoins(uuid, getCoins(uuid));
-                        core.debug("The uuid of: " + core.getNick(uuid) + " was updated in the database.");
+                        ps.executeBatch();
                     }
+                    // the update counts of a rewritten batch don't say which rows were created, so they are read again
+                    try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USERS_ONLINE, missing.keySet())) {
+                        while (res.next()) {
+                            CacheManager.updateCoins(UUID.fromString(res.getString("uuid")), res.getDouble("balance"), res.getLong("version"));
+                        }
+                    }
+                    core.debug(DebugCategory.DATABASE, () -> "An entry in the database was created for " + missing.size() + " players.");
                 }
+                c.commit();
+                players.forEach(CacheManager::playerCreated);
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
             } finally {
-                if (res != null) {
-                    res.close();
-                }
-                c.close();
-                core.debug("The connection was closed.");
+                c.setAutoCommit(true);
             }
         } catch (SQLException ex) {
-            core.log("&cAn internal error has occurred creating the player: " + name + " in the database.");
+            core.log("&cAn internal error has occurred loading " + players.size() + " players from the database.");
             core.debug(ex);
         }
     }
@@ -223,67 +300,67 @@ public class MySQL implements Database {
     @Override
     public Double getCoins(String player) {
         double coins = -1;
-        try (Connection c = ds.getConnection(); ResultSet res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_OFFLINE, player).executeQuery()) {
-            if (CoinsAPI.isindb(player)) {
-                res.next();
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_OFFLINE, player)) {
+            if (res.next()) {
                 coins = res.getDouble("balance");
-            } else if (core.isOnline(player)) {
-                coins = core.getConfig().getDouble("General.Starting Coins", 0);
+                CacheManager.updateCoins(UUID.fromString(res.getString("uuid")), coins, res.getLong("version"));
+            } else if (core.isOnline(player)) { // the player is created when he joins or when his coins are changed
+                coins = core.getConfig().getSettings().getStartingCoins();
             } else {
-                core.debug("The user '" + player + "' isn't in the database or online.");
-                return coins;
+                CacheManager.getMissingPlayers().add(player);
+                core.debug(DebugCategory.DATABASE, () -> "The user '" + player + "' isn't in the database or online.");
             }
-            createPlayer(c, player, core.getUUID(player), coins);
         } catch (SQLException ex) {
-            core.log("&cAn internal error has occurred creating the data for player: " + player);
+            core.log("&cAn internal error has occurred getting the coins of player: " + player);
             core.debug(ex);
         }
         return coins;
     }
 
     @Override
-    public void addCoins(String player, Double coins) {
-        try (Connection c = ds.getConnection()) {
-            double oldCoins = CoinsAPI.getCoins(player);
-            if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, oldCoins + coins, player).executeUpdate();
-                core.updateCache(core.getUUID(player), oldCoins + coins);
-                core.getMethods().callCoinsChangeEvent(core.getUUID(player), oldCoins, oldCoins + coins);
+    public double addCoins(String player, Double coins) {
+        try {
+            VersionedBalance balance = updateBalance(player, SQLQuery.ADD_COINS_OFFLINE, coins, player);
+            double newCoins = balance.getBalance();
+            if (newCoins > -1) {
+                UUID uuid = core.getUUID(player);
+                core.updateCache(uuid, newCoins, balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(uuid, newCoins - coins, newCoins);
             }
+            return newCoins;
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred adding coins to the player: " + player);
             core.debug(ex);
         }
+        return -1;
     }
 
     @Override
-    public void takeCoins(String player, Double coins) {
-        try (Connection c = ds.getConnection()) {
-            double beforeCoins = CoinsAPI.getCoins(player);
-            if (beforeCoins > -1) {
-                if ((beforeCoins - coins) < 0 || beforeCoins == coins) {
-                    Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, 0, player).executeUpdate();
-                    core.updateCache(core.getUUID(player), 0D);
-                } else {
-                    Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, beforeCoins - coins, player).executeUpdate();
-                    core.updateCache(core.getUUID(player), getCoins(player));
-                }
-                core.getMethods().callCoinsChangeEvent(core.getUUID(player), beforeCoins, beforeCoins - coins);
+    public double takeCoins(String player, Double coins) {
+        try {
+            UUID uuid = core.getUUID(player);
+            VersionedBalance[] balances = updateBalanceTracked(player, SQLQuery.TAKE_COINS_TRACKED_OFFLINE, coins, coins, player);
+            double newCoins = balances[1].getBalance();
+            if (newCoins > -1) {
+                core.updateCache(uuid, newCoins, balances[1].getVersion());
+                core.getMethods().callCoinsChangeEvent(uuid, balances[0].getBalance(), newCoins);
             }
+            return newCoins;
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred taking coins to the player: " + player);
             core.debug(ex);
         }
+        return -1;
     }
 
     @Override
     public void resetCoins(String player) {
-        try (Connection c = ds.getConnection()) {
+        try {
             double oldCoins = CoinsAPI.getCoins(player);
             if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, core.getConfig().getDouble("General.Starting Coins", 0), player).executeUpdate();
-                core.updateCache(core.getUUID(player), core.getConfig().getDouble("General.Starting Coins"));
-                core.getMethods().callCoinsChangeEvent(core.getUUID(player), oldCoins, core.getConfig().getDouble("General.Starting Coins"));
+                VersionedBalance balance = updateBalance(player, SQLQuery.UPDATE_COINS_OFFLINE, core.getConfig().getSettings().getStartingCoins(), player);
+                core.updateCache(core.getUUID(player), core.getConfig().getSettings().getStartingCoins(), balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(core.getUUID(player), oldCoins, core.getConfig().getSettings().getStartingCoins());
             }
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred reseting the coins of player: " + player);
@@ -293,11 +370,11 @@ public class MySQL implements Database {
 
     @Override
     public void setCoins(String player, Double coins) {
-        try (Connection c = ds.getConnection()) {
+        try {
             double oldCoins = CoinsAPI.getCoins(player);
             if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, coins, player).executeUpdate();
-                core.updateCache(core.getUUID(player), coins);
+                VersionedBalance balance = updateBalance(player, SQLQuery.UPDATE_COINS_OFFLINE, coins, player);
+                core.updateCache(core.getUUID(player), coins, balance.getVersion());
                 core.getMethods().callCoinsChangeEvent(core.getUUID(player), oldCoins, coins);
             }
         } catch (SQLException ex) {
@@ -308,10 +385,11 @@ public class MySQL implements Database {
 
     @Override
     public boolean isindb(String player) {
-        try (Connection c = ds.getConnection(); ResultSet res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_OFFLINE, player).executeQuery()) {
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_OFFLINE, player)) {
             if (res.next()) {
                 return res.getString("nick") != null;
             }
+            CacheManager.getMissingPlayers().add(player); // only cached when the database says it isn't there
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred cheking if the player: " + player + " exists in the database.");
             core.debug(ex);
@@ -322,67 +400,82 @@ public class MySQL implements Database {
     @Override
     public Double getCoins(UUID player) {
         double coins = -1;
-        try (Connection c = ds.getConnection(); ResultSet res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_ONLINE, player).executeQuery()) {
-            if (CoinsAPI.isindb(player)) {
-                res.next();
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, player)) {
+            if (res.next()) {
                 coins = res.getDouble("balance");
-            } else if (core.isOnline(player)) {
-                coins = core.getConfig().getDouble("General.Starting Coins", 0);
+                CacheManager.updateCoins(player, coins, res.getLong("version"));
+            } else if (core.isOnline(player)) { // the player is created when he joins or when his coins are changed
+                coins = core.getConfig().getSettings().getStartingCoins();
             } else {
-                core.debug("The user '" + player + "' isn't in the database or online.");
-                return coins;
+                CacheManager.getMissingPlayers().add(player);
+                core.debug(DebugCategory.DATABASE, () -> "The user '" + player + "' isn't in the database or online.");
             }
-            createPlayer(c, core.getNick(player), player, coins);
         } catch (SQLException ex) {
-            core.log("&cAn internal error has occurred creating the data for player: " + core.getNick(player));
+            core.log("&cAn internal error has occurred getting the coins of player: " + player);
             core.debug(ex);
         }
         return coins;
     }
 
     @Override
-    public void addCoins(UUID player, Double coins) {
-        try (Connection c = ds.getConnection()) {
-            double oldCoins = CoinsAPI.getCoins(player);
-            if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, oldCoins + coins, player).executeUpdate();
-                core.updateCache(player, oldCoins + coins);
-                core.getMethods().callCoinsChangeEvent(player, oldCoins, oldCoins + coins);
+    public double addCoins(UUID player, Double coins) {
+        try {
+            VersionedBalance balance = updateBalance(player, SQLQuery.ADD_COINS_ONLINE, coins, player);
+            double newCoins = balance.getBalance();
+            if (newCoins > -1) {
+                core.updateCache(player, newCoins, balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(player, newCoins - coins, newCoins);
             }
+            return newCoins;
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred adding coins to the player: " + core.getNick(player));
             core.debug(ex);
         }
+        return -1;
     }
 
     @Override
-    public void takeCoins(UUID player, Double coins) {
-        try (Connection c = ds.getConnection()) {
-            double beforeCoins = CoinsAPI.getCoins(player);
-            if (beforeCoins > -1) {
-                if ((beforeCoins - coins) < 0 || beforeCoins == coins) {
-                    Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, 0, player).executeUpdate();
-                    core.updateCache(player, 0D);
-                } else {
-                    Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, beforeCoins - coins, player).executeUpdate();
-                    core.updateCache(player, getCoins(player));
-                }
-                core.getMethods().callCoinsChangeEvent(player, beforeCoins, beforeCoins - coins);
+    public double takeCoins(UUID player, Double coins) {
+        try {
+            VersionedBalance[] balances = updateBalanceTracked(player, SQLQuery.TAKE_COINS_TRACKED_ONLINE, coins, coins, player);
+            double newCoins = balances[1].getBalance();
+            if (newCoins > -1) {
+                core.updateCache(player, newCoins, balances[1].getVersion());
+                core.getMethods().callCoinsChangeEvent(player, balances[0].getBalance(), newCoins);
             }
+            return newCoins;
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred taking coins to the player: " + core.getNick(player));
             core.debug(ex);
         }
+        return -1;
+    }
+
+    @Override
+    public double spendCoins(UUID player, double coins) {
+        try {
+            VersionedBalance balance = updateBalance(player, SQLQuery.TRANSFER_TAKE, coins, player, coins);
+            double newCoins = balance.getBalance();
+            if (newCoins > -1) {
+                core.updateCache(player, newCoins, balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(player, newCoins + coins, newCoins);
+            }
+            return newCoins;
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred taking coins to the player: " + core.getNick(player));
+            core.debug(ex);
+        }
+        return -1;
     }
 
     @Override
     public void resetCoins(UUID player) {
-        try (Connection c = ds.getConnection()) {
+        try {
             double oldCoins = CoinsAPI.getCoins(player);
             if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, core.getConfig().getDouble("General.Starting Coins", 0), player).executeUpdate();
-                core.updateCache(player, core.getConfig().getDouble("General.Starting Coins"));
-                core.getMethods().callCoinsChangeEvent(player, oldCoins, core.getConfig().getDouble("General.Starting Coins"));
+                VersionedBalance balance = updateBalance(player, SQLQuery.UPDATE_COINS_ONLINE, core.getConfig().getSettings().getStartingCoins(), player);
+                core.updateCache(player, core.getConfig().getSettings().getStartingCoins(), balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(player, oldCoins, core.getConfig().getSettings().getStartingCoins());
             }
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred reseting the coins of player: " + core.getNick(player));
@@ -392,11 +485,11 @@ public class MySQL implements Database {
 
     @Override
     public void setCoins(UUID player, Double coins) {
-        try (Connection c = ds.getConnection()) {
+        try {
             double oldCoins = CoinsAPI.getCoins(player);
             if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, coins, player).executeUpdate();
-                core.updateCache(player, coins);
+                VersionedBalance balance = updateBalance(player, SQLQuery.UPDATE_COINS_ONLINE, coins, player);
+                core.updateCache(player, coins, balance.getVersion());
                 core.getMethods().callCoinsChangeEvent(player, oldCoins, coins);
             }
         } catch (SQLException ex) {
@@ -407,10 +500,11 @@ public class MySQL implements Database {
 
     @Override
     public boolean isindb(UUID player) {
-        try (Connection c = ds.getConnection(); ResultSet res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_ONLINE, player).executeQuery()) {
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, player)) {
             if (res.next()) {
                 return res.getString("uuid") != null;
             }
+            CacheManager.getMissingPlayers().add(player);
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred cheking if the player: " + player + " exists in the database.");
             core.debug(ex);
@@ -418,13 +512,110 @@ public class MySQL implements Database {
         return false;
     }
 
+    @Override
+    public boolean addCoins(Map<UUID, Double> coins, Collection<String> segments) {
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = Utils.generatePreparedStatement(c, SQLQuery.ADD_COINS_ONLINE); PreparedStatement journal = Utils.generatePreparedStatement(c, SQLQuery.INSERT_JOURNAL_SEGMENT)) {
+                for (Map.Entry<UUID, Double> entry : coins.entrySet()) {
+                    ps.setDouble(1, entry.getValue());
+                    ps.setString(2, entry.getKey().toString());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                for (String segment : segments) {
+                    journal.setString(1, segment);
+                    journal.addBatch();
+                }
+                journal.executeBatch();
+                c.commit();
+                return true;
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred adding coins to " + coins.size() + " players.");
+            core.debug(ex);
+        }
+        return false;
+    }
+
+    @Override
+    public Set<String> getCommittedSegments(String journal) {
+        Set<String> segments = new HashSet<>();
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SELECT_JOURNAL_SEGMENTS, journal + ":%")) {
+            while (res.next()) {
+                segments.add(res.getString("segment"));
+            }
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred reading the balance journal from the database.");
+            core.debug(ex);
+            return null;
+        }
+        return segments;
+    }
+
+    @Override
+    public void removeCommittedSegments(String journal) {
+        try (Connection c = ds.getConnection()) {
+            Utils.executeUpdate(c, SQLQuery.DELETE_JOURNAL_SEGMENTS, journal + ":%");
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred removing the balance journal from the database.");
+            core.debug(ex);
+        }
+    }
+
+    @Override
+    public TransferResult transfer(UUID from, UUID to, double amount) {
+        TransferResult result;
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                int taken;
+                int added;
+                if (from.compareTo(to) < 0) { // update the rows always in the same order so opposite transfers can't deadlock
+                    taken = Utils.executeUpdate(c, SQLQuery.TRANSFER_TAKE, amount, from, amount);
+                    added = taken == 0 ? 0 : Utils.executeUpdate(c, SQLQuery.ADD_COINS_ONLINE, amount, to);
+                } else {
+                    added = Utils.executeUpdate(c, SQLQuery.ADD_COINS_ONLINE, amount, to);
+                    taken = added == 0 ? 0 : Utils.executeUpdate(c, SQLQuery.TRANSFER_TAKE, amount, from, amount);
+                }
+                if (taken == 0 || added == 0) {
+                    c.rollback();
+                    return TransferResult.FAILED;
+                }
+                VersionedBalance fromBalance = readBalance(c, from);
+                VersionedBalance toBalance = readBalance(c, to);
+                result = new TransferResult(true, fromBalance.getBalance(), toBalance.getBalance(), fromBalance.getVersion(), toBalance.getVersion());
+                c.commit();
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred transfering " + amount + " coins from " + core.getNick(from) + " to " + core.getNick(to));
+            core.debug(ex);
+            return TransferResult.FAILED;
+        }
+        core.updateCache(from, result.getFromBalance(), result.getFromVersion());
+        core.updateCache(to, result.getToBalance(), result.getToVersion());
+        core.getMethods().callCoinsChangeEvent(from, result.getFromBalance() + amount, result.getFromBalance());
+        core.getMethods().callCoinsChangeEvent(to, result.getToBalance() - amount, result.getToBalance());
+        return result;
+    }
+
     @Override
     public List<String> getTop(int top) {
         List<String> toplist = new ArrayList<>();
         try (Connection c = ds.getConnection()) {
             ResultSet res = null;
             try {
-                res = Utils.generatePreparedStatement(c, SQLQuery.SELECT_TOP, top).executeQuery();
+                res = Utils.executeQuery(c, SQLQuery.SELECT_TOP, top);
                 while (res.next()) {
                     String playername = res.getString("nick");
                     int coins = (int) res.getDouble("balance");
@@ -449,7 +640,7 @@ public class MySQL implements Database {
         try (Connection c = ds.getConnection()) {
             ResultSet res = null;
             try {
-                res = Utils.generatePreparedStatement(c, SQLQuery.SELECT_TOP, top).executeQuery();
+                res = Utils.executeQuery(c, SQLQuery.SELECT_TOP, top);
                 while (res.next()) {
                     String playername = res.getString("nick");
                     double coins = res.getDouble("balance");
@@ -468,9 +659,123 @@ public class MySQL implements Database {
         return Utils.sortByValue(topplayers);
     }
 
-    private boolean isColumnMissing(DatabaseMetaData metaData, String table, String column) throws SQLException {
-        try (ResultSet res = metaData.getColumns(null, null, Database.prefix + table, column)) {
-            return !res.next();
+    /**
+     * Apply a delta based update to the balance of a player and read the resulting balance in the same transaction, so
+     * concurrent writers on other servers can't overwrite each other. If the player isn't in the database but is
+     * online, it is created with the starting balance and the update is applied again.
+     *
+     * @param player     The uuid or nick of the player, depending on the query.
+     * @param update     The update query to run.
+     * @param parameters The parameters for the update query.
+     * @return The new balance of the player with its version, or {@link VersionedBalance#MISSING} if the player isn't in
+     * the database.
+     * @throws SQLException if the update fails.
+     */
+    private VersionedBalance updateBalance(Object player, SQLQuery update, Object... parameters) throws SQLException {
+        VersionedBalance balance = executeBalanceUpdate(update, player instanceof UUID ? SQLQuery.SEARCH_USER_ONLINE : SQLQuery.SEARCH_USER_OFFLINE, player, parameters);
+        if (balance.getBalance() == -1 && createOnlinePlayer(player)) {
+            balance = executeBalanceUpdate(update, player instanceof UUID ? SQLQuery.SEARCH_USER_ONLINE : SQLQuery.SEARCH_USER_OFFLINE, player, parameters);
+        }
+        return balance;
+    }
+
+    /**
+     * Same as {@link #updateBalance(Object, SQLQuery, Object...)}, but the balance before the update is read in the
+     * same transaction.
+     *
+     * @param player     The uuid or nick of the player, depending on the query.
+     * @param update     The update query to run.
+     * @param parameters The parameters for the update query.
+     * @return The balance before and after the update with their versions, both are
+     * {@link VersionedBalance#MISSING} if the player isn't in the database.
+     * @throws SQLException if the update fails.
+     */
+    private VersionedBalance[] updateBalanceTracked(Object player, SQLQuery update, Object... parameters) throws SQLException {
+        VersionedBalance[] balances = executeTrackedUpdate(update, player, parameters);
+        if (balances[1].getBalance() == -1 && createOnlinePlayer(player)) {
+            balances = executeTrackedUpdate(update, player, parameters);
+        }
+        return balances;
+    }
+
+    /**
+     * Create a player that isn't in the database if it is online, this must be called only when an update didn't match
+     * any row, because conditional updates also don't match when the player doesn't have enough coins.
+     *
+     * @param player The uuid or nick of the player.
+     * @return true if the player is online and was created, false if the player is offline or already exists.
+     */
+    private boolean createOnlinePlayer(Object player) {
+        if (!(player instanceof UUID ? core.isOnline((UUID) player) : core.isOnline((String) player))) {
+            return false;
+        }
+        UUID uuid = player instanceof UUID ? (UUID) player : core.getUUID((String) player);
+        String nick = player instanceof UUID ? core.getNick((UUID) player) : (String) player;
+        try (Connection c = ds.getConnection()) {
+            try (ResultSet res = Utils.executeQuery(c, player instanceof UUID ? SQLQuery.SEARCH_USER_ONLINE : SQLQuery.SEARCH_USER_OFFLINE, player)) {
+                if (res.next()) { // the update was rejected by its condition, the player isn't missing
+                    return false;
+                }
+            }
+            createPlayer(c, nick, uuid, core.getConfig().getSettings().getStartingCoins());
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred creating the player: " + nick + " in the database.");
+            core.debug(ex);
+            return false;
+        }
+        return true;
+    }
+
+    private VersionedBalance executeBalanceUpdate(SQLQuery update, SQLQuery search, Object player, Object... parameters) throws SQLException {
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                if (Utils.executeUpdate(c, update, parameters) == 0) {
+                    c.rollback();
+                    return VersionedBalance.MISSING;
+                }
+                try (ResultSet res = Utils.executeQuery(c, search, player)) {
+                    VersionedBalance balance = res.next() ? new VersionedBalance(res.getDouble("balance"), res.getLong("version")) : VersionedBalance.MISSING;
+                    c.commit();
+                    return balance;
+                }
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
+    private VersionedBalance[] executeTrackedUpdate(SQLQuery update, Object player, Object... parameters) throws SQLException {
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                if (Utils.executeUpdate(c, update, parameters) == 0) {
+                    c.rollback();
+                    return new VersionedBalance[]{VersionedBalance.MISSING, VersionedBalance.MISSING};
+                }
+                // the update saved the old balance in a session variable, it is read with the new balance
+                try (ResultSet res = Utils.executeQuery(c, player instanceof UUID ? SQLQuery.SEARCH_USER_TRACKED_ONLINE : SQLQuery.SEARCH_USER_TRACKED_OFFLINE, player)) {
+                    VersionedBalance[] balances = res.next()
+                            ? new VersionedBalance[]{new VersionedBalance(res.getDouble("before_balance"), res.getLong("version") - 1), new VersionedBalance(res.getDouble("balance"), res.getLong("version"))}
+                            : new VersionedBalance[]{VersionedBalance.MISSING, VersionedBalance.MISSING};
+                    c.commit();
+                    return balances;
+                }
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
+    private VersionedBalance readBalance(Connection c, UUID uuid) throws SQLException {
+        try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, uuid)) {
+            return res.next() ? new VersionedBalance(res.getDouble("balance"), res.getLong("version")) : VersionedBalance.MISSING;
         }
     }
 
@@ -479,7 +784,7 @@ public class MySQL implements Database {
         try (Connection c = ds.getConnection()) {
             ResultSet res = null;
             try {
-                res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_ONLINE, uuid).executeQuery();
+                res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, uuid);
                 if (res.next()) {
                     return res.getString("nick");
                 }
@@ -501,10 +806,11 @@ public class MySQL implements Database {
         try (Connection c = ds.getConnection()) {
             ResultSet res = null;
             try {
-                res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_OFFLINE, nick).executeQuery();
+                res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_OFFLINE, nick);
                 if (res.next()) {
                     return UUID.fromString(res.getString("uuid"));
                 }
+                CacheManager.getMissingPlayers().add(nick);
             } finally {
                 if (res != null) {
                     res.close();
@@ -518,10 +824,25 @@ public class MySQL implements Database {
         return null;
     }
 
+    @Override
+    public Map<String, Double> getTopPlayersData(int top) {
+        Map<String, Double> data = new LinkedHashMap<>();
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SELECT_TOP, top)) {
+            while (res.next()) {
+                data.put(res.getString("nick") + "," + res.getString("uuid"), res.getDouble("balance"));
+            }
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred generating the toplist");
+            core.debug(ex);
+            return null;
+        }
+        return data;
+    }
+
     @Override
     public Map<String, Double> getAllPlayers() {
         Map<String, Double> data = new HashMap<>();
-        try (Connection c = ds.getConnection(); ResultSet res = c.prepareStatement("SELECT * FROM " + CoinsCore.getInstance().getConfig().getString("MySQL.Prefix") + "Data;").executeQuery()) {
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SELECT_ALL)) {
             while (res.next()) {
                 data.put(res.getString("nick") + "," + res.getString("uuid"), res.getDouble("balance"));
             }
@@ -0,0 +1,102 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+import net.nifheim.beelzebu.coins.common.utils.DebugCategory;
+
+/**
+ * Loads the players that join the server in batches, so when many players join at the same time (for example after a
+ * restart) they are loaded with a few queries instead of some queries for every player.
+ *
+ * @author Beelzebu
+ */
+public final class PlayerLoader {
+
+    /**
+     * Max amount of players loaded with a single query.
+     */
+    private static final int MAX_BATCH = 500;
+    private final CoinsCore core;
+    private final ScheduledThreadPoolExecutor loader = new ScheduledThreadPoolExecutor(1, rn -> {
+        Thread thread = new Thread(rn, "Coins Loader Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long window;
+    private Map<UUID, String> pending = new LinkedHashMap<>();
+
+    /**
+     * @param core   The instance of the core.
+     * @param window The time in milliseconds to wait for more players before loading them.
+     */
+    public PlayerLoader(CoinsCore core, long window) {
+        this.core = core;
+        this.window = window;
+    }
+
+    /**
+     * Queue a player to be loaded in the next batch.
+     *
+     * @param uuid The uuid of the player.
+     * @param nick The name of the player.
+     */
+    public void load(UUID uuid, String nick) {
+        boolean schedule;
+        synchronized (this) {
+            schedule = pending.isEmpty();
+            pending.put(uuid, nick);
+        }
+        if (schedule && !loader.isShutdown()) {
+            loader.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        Map<UUID, String> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        Map<UUID, String> players = new LinkedHashMap<>();
+        for (Map.Entry<UUID, String> entry : batch.entrySet()) {
+            players.put(entry.getKey(), entry.getValue());
+            if (players.size() == MAX_BATCH) {
+                core.getDatabase().loadPlayers(players);
+                players = new LinkedHashMap<>();
+            }
+        }
+        if (!players.isEmpty()) {
+            core.getDatabase().loadPlayers(players);
+        }
+        core.debug(DebugCategory.DATABASE, () -> "Loaded " + batch.size() + " players from the database.");
+    }
+
+    public void shutdown() {
+        loader.shutdown();
+        try {
+            loader.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
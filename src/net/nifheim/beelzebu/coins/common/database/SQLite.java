@@ -19,18 +19,25 @@ package net.nifheim.beelzebu.coins.common.database;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.nifheim.beelzebu.coins.CoinsAPI;
 import net.nifheim.beelzebu.coins.common.CoinsCore;
+import net.nifheim.beelzebu.coins.common.utils.CacheManager;
+import net.nifheim.beelzebu.coins.common.utils.DebugCategory;
 
 /**
  * @author Beelzebu
@@ -61,7 +68,7 @@ public class SQLite implements Database {
         hc.setPoolName("Coins SQLite Connection Pool");
         hc.setJdbcUrl("jdbc:sqlite:plugins/Coins/database.db");
         hc.setConnectionTestQuery("SELECT 1");
-        hc.setMaxLifetime(60000);
+        hc.setMaxLifetime(1800000); // a file doesn't drop idle connections, and the cached statements die with them
         hc.setMinimumIdle(4);
         hc.setIdleTimeout(30000);
         hc.setConnectionTimeout(10000);
@@ -69,6 +76,8 @@ public class SQLite implements Database {
         hc.setLeakDetectionThreshold(30000);
         hc.validate();
         ds = new HikariDataSource(hc);
+        // the SQLite driver doesn't cache statements, one for every query is enough because IN lists aren't cached
+        Database.Utils.setStatementCache(new StatementCache(SQLQuery.values().length));
 
         try (Connection c = ds.getConnection()) {
             if (c.isClosed()) {
@@ -82,29 +91,50 @@ public class SQLite implements Database {
 
     private void updateDatabase() {
         try (Connection c = ds.getConnection()) {
-            core.debug("A database connection was opened.");
-            String Data
-                    = "CREATE TABLE IF NOT EXISTS `Data`"
-                    + "(`uuid` VARCHAR(50),"
-                    + "`nick` VARCHAR(50),"
-                    + "`balance` DOUBLE,"
-                    + "`lastlogin` LONG);";
-            String Multiplier = "CREATE TABLE IF NOT EXISTS `Multipliers`"
-                    + "(`id` INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "`uuid` VARCHAR(50),"
-                    + "`multiplier` INT,"
-                    + "`queue` INT,"
-                    + "`minutes` INT,"
-                    + "`endtime` LONG,"
-                    + "`server` VARCHAR(50),"
-                    + "`enabled` BOOLEAN);";
-            c.createStatement().executeUpdate(Data);
-            core.debug("The data table was updated.");
-            c.createStatement().executeUpdate(Multiplier);
-            core.debug("The multipliers table was updated");
+            core.debug(DebugCategory.DATABASE, "A database connection was opened.");
+            new SchemaMigrator(core).add("Create the data and multipliers tables", con -> {
+                try (Statement st = con.createStatement()) {
+                    st.executeUpdate("CREATE TABLE IF NOT EXISTS `Data`"
+                            + "(`uuid` VARCHAR(50),"
+                            + "`nick` VARCHAR(50),"
+                            + "`balance` DOUBLE,"
+                            + "`lastlogin` LONG);");
+                    st.executeUpdate("CREATE TABLE IF NOT EXISTS `Multipliers`"
+                            + "(`id` INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + "`uuid` VARCHAR(50),"
+                            + "`multiplier` INT,"
+                            + "`queue` INT,"
+                            + "`minutes` INT,"
+                            + "`endtime` LONG,"
+                            + "`server` VARCHAR(50),"
+                            + "`enabled` BOOLEAN);");
+                }
+            }).add("Add a unique uuid and indexes for nick, balance and active multipliers", con -> {
+                try (Statement st = con.createStatement()) {
+                    // the table never had a key, keep only the last row of every uuid before making it unique
+                    st.executeUpdate("DELETE FROM `Data` WHERE rowid NOT IN (SELECT MAX(rowid) FROM `Data` GROUP BY `uuid`);");
+                    st.executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS `idx_uuid` ON `Data` (`uuid`);");
+                    st.executeUpdate("CREATE INDEX IF NOT EXISTS `idx_nick` ON `Data` (`nick`);");
+                    st.executeUpdate("CREATE INDEX IF NOT EXISTS `idx_balance` ON `Data` (`balance`);");
+                    st.executeUpdate("CREATE INDEX IF NOT EXISTS `idx_server_enabled_queue` ON `Multipliers` (`server`, `enabled`, `queue`);");
+                }
+            }).add("Add a version to the balances", con -> {
+                if (!SchemaMigrator.hasColumn(con, "Data", "version")) {
+                    try (Statement st = con.createStatement()) {
+                        st.executeUpdate("ALTER TABLE `Data` ADD COLUMN `version` INTEGER NOT NULL DEFAULT 0;");
+                    }
+                }
+            }).add("Add the table for the committed balance journal segments", con -> {
+                try (Statement st = con.createStatement()) {
+                    st.executeUpdate("CREATE TABLE IF NOT EXISTS `Journal` (`segment` VARCHAR(100) PRIMARY KEY);");
+                }
+            }).migrate(c);
+            core.debug(DebugCategory.DATABASE, "The database schema is up to date.");
             if (core.getConfig().getBoolean("General.Purge.Enabled", true)) {
-                c.createStatement().executeUpdate("DELETE FROM Data WHERE lastlogin < " + (System.currentTimeMillis() - (core.getConfig().getInt("General.Purge.Days") * 86400000)) + ";");
-                core.debug("Inactive users were removed from the database.");
+                try (Statement st = c.createStatement()) {
+                    st.executeUpdate("DELETE FROM Data WHERE lastlogin < " + (System.currentTimeMillis() - (core.getConfig().getInt("General.Purge.Days") * 86400000L)) + ";");
+                }
+                core.debug(DebugCategory.DATABASE, "Inactive users were removed from the database.");
             }
         } catch (SQLException ex) {
             core.log("Something was wrong creating the default databases. Please check the debug log.");
@@ -116,40 +146,94 @@ public class SQLite implements Database {
     @Override
     public void createPlayer(Connection c, String player, UUID uuid, double balance) {
         try {
-            core.debug("A database connection was opened.");
-            ResultSet res = null;
+            createOrUpdatePlayer(c, player, uuid, balance);
+            CacheManager.playerCreated(uuid, player);
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred creating the player: " + player + " in the database.");
+            core.debug(ex);
+        }
+    }
+
+    private void createOrUpdatePlayer(Connection c, String player, UUID uuid, double balance) throws SQLException {
+        core.debug(DebugCategory.DATABASE, "Trying to create or update data.");
+        if (core.getConfig().getSettings().isOnlineMode()) {
+            core.debug(DebugCategory.DATABASE, "Preparing to create or update an entry for online mode.");
+            // the sqlite version bundled with old servers doesn't support upserts, but the unique uuid makes this safe
+            if (Utils.executeUpdate(c, SQLQuery.CREATE_USER_IGNORE, uuid, player, balance, System.currentTimeMillis()) == 0) {
+                Utils.executeUpdate(c, SQLQuery.UPDATE_USER_ONLINE, player, System.currentTimeMillis(), uuid);
+            }
+            try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, uuid)) {
+                if (res.next()) {
+                    CacheManager.updateCoins(uuid, res.getDouble("balance"), res.getLong("version"));
+                }
+            }
+            core.debug(DebugCategory.DATABASE, () -> "An entry in the database was created or updated for: " + player);
+        } else {
+            core.debug(DebugCategory.DATABASE, "Preparing to create or update an entry for offline mode.");
+            boolean exists;
+            try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_OFFLINE, player)) {
+                exists = res.next();
+            }
+            if (!exists) {
+                Utils.executeUpdate(c, SQLQuery.CREATE_USER, uuid, player, balance, System.currentTimeMillis());
+                core.debug(DebugCategory.DATABASE, () -> "An entry in the database was created for: " + player);
+            } else {
+                Utils.executeUpdate(c, SQLQuery.UPDATE_USER_OFFLINE, uuid, System.currentTimeMillis(), player);
+                core.debug(DebugCategory.DATABASE, () -> "The uuid of: " + core.getNick(uuid) + " was updated in the database.");
+            }
+        }
+    }
+
+    @Override
+    public void loadPlayers(Map<UUID, String> players) {
+        Map<UUID, String> missing = new HashMap<>(players);
+        long now = System.currentTimeMillis();
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
             try {
-                core.debug("Trying to create or update data.");
-                if (core.getConfig().getBoolean("Online Mode")) {
-                    core.debug("Preparing to create or update an entry for online mode.");
-                    res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_ONLINE, uuid).executeQuery();
-                    if (!res.next()) {
-                        Utils.generatePreparedStatement(c, SQLQuery.CREATE_USER, uuid, player, balance, System.currentTimeMillis()).executeUpdate();
-                        core.debug("An entry in the database was created for: " + player);
-                    } else {
-                        Utils.generatePreparedStatement(c, SQLQuery.UPDATE_USER_ONLINE, player, System.currentTimeMillis(), uuid).executeUpdate();
-                        core.debug("The nickname of: " + player + " was updated in the database.");
+                try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USERS_ONLINE, players.keySet()); PreparedStatement ps = Utils.generatePreparedStatement(c, SQLQuery.UPDATE_USER_ONLINE)) {
+                    while (res.next()) {
+                        UUID uuid = UUID.fromString(res.getString("uuid"));
+                        missing.remove(uuid);
+                        CacheManager.updateCoins(uuid, res.getDouble("balance"), res.getLong("version"));
+                        ps.setString(1, players.get(uuid));
+                        ps.setLong(2, now);
+                        ps.setString(3, uuid.toString());
+                        ps.addBatch();
                     }
-                } else {
-                    core.debug("Preparing to create or update an entry for offline mode.");
-                    res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_OFFLINE, player).executeQuery();
-                    if (!res.next()) {
-                        Utils.generatePreparedStatement(c, SQLQuery.CREATE_USER, uuid, player, balance, System.currentTimeMillis()).executeUpdate();
-                        core.debug("An entry in the database was created for: " + player);
-                    } else {
-                        Utils.generatePreparedStatement(c, SQLQuery.UPDATE_USER_OFFLINE, uuid, System.currentTimeMillis(), player).executeUpdate();
-                        core.debug("The uuid of: " + core.getNick(uuid) + " was updated in the database.");
+                    ps.executeBatch();
+                }
+                if (!missing.isEmpty() && core.getConfig().getSettings().isCreateJoin()) {
+                    double balance = core.getConfig().getSettings().getStartingCoins();
+                    // another server may create the same players at the same time, so existing rows are kept
+                    try (PreparedStatement ps = Utils.generatePreparedStatement(c, SQLQuery.CREATE_USER_IGNORE)) {
+                        for (Map.Entry<UUID, String> entry : missing.entrySet()) {
+                            ps.setString(1, entry.getKey().toString());
+                            ps.setString(2, entry.getValue());
+                            ps.setDouble(3, balance);
+                            ps.setLong(4, now);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    }
+                    // the update counts of a rewritten batch don't say which rows were created, so they are read again
+                    try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USERS_ONLINE, missing.keySet())) {
+                        while (res.next()) {
+                            CacheManager.updateCoins(UUID.fromString(res.getString("uuid")), res.getDouble("balance"), res.getLong("version"));
+                        }
                     }
+                    core.debug(DebugCategory.DATABASE, () -> "An entry in the database was created for " + missing.size() + " players.");
                 }
+                c.commit();
+                players.forEach(CacheManager::playerCreated);
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
             } finally {
-                if (res != null) {
-                    res.close();
-                }
-                c.close();
-                core.debug("The connection was closed.");
+                c.setAutoCommit(true);
             }
         } catch (SQLException ex) {
-            core.log("&cAn internal error has occurred creating the player: " + player + " in the database.");
+            core.log("&cAn internal error has occurred loading " + players.size() + " players from the database.");
             core.debug(ex);
         }
     }
@@ -157,67 +241,67 @@ public class SQLite implements Database {
     @Override
     public Double getCoins(String player) {
         double coins = -1;
-        try (Connection c = ds.getConnection(); ResultSet res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_OFFLINE, player).executeQuery()) {
-            if (CoinsAPI.isindb(player)) {
-                res.next();
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_OFFLINE, player)) {
+            if (res.next()) {
                 coins = res.getDouble("balance");
-            } else if (core.isOnline(player)) {
-                coins = core.getConfig().getDouble("General.Starting Coins", 0);
+                CacheManager.updateCoins(UUID.fromString(res.getString("uuid")), coins, res.getLong("version"));
+            } else if (core.isOnline(player)) { // the player is created when he joins or when his coins are changed
+                coins = core.getConfig().getSettings().getStartingCoins();
             } else {
-                core.debug("The user '" + player + "' isn't in the database or online.");
-                return coins;
+                CacheManager.getMissingPlayers().add(player);
+                core.debug(DebugCategory.DATABASE, () -> "The user '" + player + "' isn't in the database or online.");
             }
-            createPlayer(c, player, core.getUUID(player), coins);
         } catch (SQLException ex) {
-            core.log("&cAn internal error has occurred creating the data for player: " + player);
+            core.log("&cAn internal error has occurred getting the coins of player: " + player);
             core.debug(ex);
         }
         return coins;
     }
 
     @Override
-    public void addCoins(String player, Double coins) {
-        try (Connection c = ds.getConnection()) {
-            double oldCoins = CoinsAPI.getCoins(player);
-            if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, oldCoins + coins, player).executeUpdate();
-                core.updateCache(core.getUUID(player), oldCoins + coins);
-                core.getMethods().callCoinsChangeEvent(core.getUUID(player), oldCoins, oldCoins + coins);
+    public double addCoins(String player, Double coins) {
+        try {
+            VersionedBalance balance = updateBalance(player, SQLQuery.ADD_COINS_OFFLINE, coins, player);
+            double newCoins = balance.getBalance();
+            if (newCoins > -1) {
+                UUID uuid = core.getUUID(player);
+                core.updateCache(uuid, newCoins, balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(uuid, newCoins - coins, newCoins);
             }
+            return newCoins;
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred adding coins to the player: " + player);
             core.debug(ex);
         }
+        return -1;
     }
 
     @Override
-    public void takeCoins(String player, Double coins) {
-        try (Connection c = ds.getConnection()) {
-            double beforeCoins = CoinsAPI.getCoins(player);
-            if (beforeCoins > -1) {
-                if ((beforeCoins - coins) < 0 || beforeCoins == coins) {
-                    Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, 0, player).executeUpdate();
-                    core.updateCache(core.getUUID(player), 0D);
-                } else {
-                    Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, beforeCoins - coins, player).executeUpdate();
-                    core.updateCache(core.getUUID(player), getCoins(player));
-                }
-                core.getMethods().callCoinsChangeEvent(core.getUUID(player), beforeCoins, beforeCoins - coins);
+    public double takeCoins(String player, Double coins) {
+        try {
+            UUID uuid = core.getUUID(player);
+            VersionedBalance[] balances = updateBalanceTracked(player, SQLQuery.TAKE_COINS_OFFLINE, coins, coins, player);
+            double newCoins = balances[1].getBalance();
+            if (newCoins > -1) {
+                core.updateCache(uuid, newCoins, balances[1].getVersion());
+                core.getMethods().callCoinsChangeEvent(uuid, balances[0].getBalance(), newCoins);
             }
+            return newCoins;
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred taking coins to the player: " + player);
             core.debug(ex);
         }
+        return -1;
     }
 
     @Override
     public void resetCoins(String player) {
-        try (Connection c = ds.getConnection()) {
+        try {
             double oldCoins = CoinsAPI.getCoins(player);
             if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, core.getConfig().getDouble("General.Starting Coins", 0), player).executeUpdate();
-                core.updateCache(core.getUUID(player), core.getConfig().getDouble("General.Starting Coins"));
-                core.getMethods().callCoinsChangeEvent(core.getUUID(player), oldCoins, core.getConfig().getDouble("General.Starting Coins"));
+                VersionedBalance balance = updateBalance(player, SQLQuery.UPDATE_COINS_OFFLINE, core.getConfig().getSettings().getStartingCoins(), player);
+                core.updateCache(core.getUUID(player), core.getConfig().getSettings().getStartingCoins(), balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(core.getUUID(player), oldCoins, core.getConfig().getSettings().getStartingCoins());
             }
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred reseting the coins of player: " + player);
@@ -227,11 +311,11 @@ public class SQLite implements Database {
 
     @Override
     public void setCoins(String player, Double coins) {
-        try (Connection c = ds.getConnection()) {
+        try {
             double oldCoins = CoinsAPI.getCoins(player);
             if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_OFFLINE, coins, player).executeUpdate();
-                core.updateCache(core.getUUID(player), coins);
+                VersionedBalance balance = updateBalance(player, SQLQuery.UPDATE_COINS_OFFLINE, coins, player);
+                core.updateCache(core.getUUID(player), coins, balance.getVersion());
                 core.getMethods().callCoinsChangeEvent(core.getUUID(player), oldCoins, coins);
             }
         } catch (SQLException ex) {
@@ -242,10 +326,11 @@ public class SQLite implements Database {
 
     @Override
     public boolean isindb(String player) {
-        try (Connection c = ds.getConnection(); ResultSet res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_OFFLINE, player).executeQuery()) {
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_OFFLINE, player)) {
             if (res.next()) {
                 return res.getString("nick") != null;
             }
+            CacheManager.getMissingPlayers().add(player); // only cached when the database says it isn't there
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred cheking if the player: " + player + " exists in the database.");
             core.debug(ex);
@@ -256,67 +341,82 @@ public class SQLite implements Database {
     @Override
     public Double getCoins(UUID player) {
         double coins = -1;
-        try (Connection c = ds.getConnection(); ResultSet res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_ONLINE, player).executeQuery()) {
-            if (CoinsAPI.isindb(player)) {
-                res.next();
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, player)) {
+            if (res.next()) {
                 coins = res.getDouble("balance");
-            } else if (core.isOnline(player)) {
-                coins = core.getConfig().getDouble("General.Starting Coins", 0);
+                CacheManager.updateCoins(player, coins, res.getLong("version"));
+            } else if (core.isOnline(player)) { // the player is created when he joins or when his coins are changed
+                coins = core.getConfig().getSettings().getStartingCoins();
             } else {
-                core.debug("The user '" + player + "' isn't in the database or online.");
-                return coins;
+                CacheManager.getMissingPlayers().add(player);
+                core.debug(DebugCategory.DATABASE, () -> "The user '" + player + "' isn't in the database or online.");
             }
-            createPlayer(c, core.getNick(player), player, coins);
         } catch (SQLException ex) {
-            core.log("&cAn internal error has occurred creating the data for player: " + core.getNick(player));
+            core.log("&cAn internal error has occurred getting the coins of player: " + player);
             core.debug(ex);
         }
         return coins;
     }
 
     @Override
-    public void addCoins(UUID player, Double coins) {
-        try (Connection c = ds.getConnection()) {
-            double oldCoins = CoinsAPI.getCoins(player);
-            if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, oldCoins + coins, player).executeUpdate();
-                core.updateCache(player, oldCoins + coins);
-                core.getMethods().callCoinsChangeEvent(player, oldCoins, oldCoins + coins);
+    public double addCoins(UUID player, Double coins) {
+        try {
+            VersionedBalance balance = updateBalance(player, SQLQuery.ADD_COINS_ONLINE, coins, player);
+            double newCoins = balance.getBalance();
+            if (newCoins > -1) {
+                core.updateCache(player, newCoins, balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(player, newCoins - coins, newCoins);
             }
+            return newCoins;
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred adding coins to the player: " + core.getNick(player));
             core.debug(ex);
         }
+        return -1;
     }
 
     @Override
-    public void takeCoins(UUID player, Double coins) {
-        try (Connection c = ds.getConnection()) {
-            double beforeCoins = CoinsAPI.getCoins(player);
-            if (beforeCoins > -1) {
-                if ((beforeCoins - coins) < 0 || beforeCoins == coins) {
-                    Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, 0, player).executeUpdate();
-                    core.updateCache(player, 0D);
-                } else {
-                    Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, beforeCoins - coins, player).executeUpdate();
-                    core.updateCache(player, getCoins(player));
-                }
-                core.getMethods().callCoinsChangeEvent(player, beforeCoins, beforeCoins - coins);
+    public double takeCoins(UUID player, Double coins) {
+        try {
+            VersionedBalance[] balances = updateBalanceTracked(player, SQLQuery.TAKE_COINS_ONLINE, coins, coins, player);
+            double newCoins = balances[1].getBalance();
+            if (newCoins > -1) {
+                core.updateCache(player, newCoins, balances[1].getVersion());
+                core.getMethods().callCoinsChangeEvent(player, balances[0].getBalance(), newCoins);
+            }
+            return newCoins;
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred taking coins to the player: " + core.getNick(player));
+            core.debug(ex);
+        }
+        return -1;
+    }
+
+    @Override
+    public double spendCoins(UUID player, double coins) {
+        try {
+            VersionedBalance balance = updateBalance(player, SQLQuery.TRANSFER_TAKE, coins, player, coins);
+            double newCoins = balance.getBalance();
+            if (newCoins > -1) {
+                core.updateCache(player, newCoins, balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(player, newCoins + coins, newCoins);
             }
+            return newCoins;
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred taking coins to the player: " + core.getNick(player));
             core.debug(ex);
         }
+        return -1;
     }
 
     @Override
     public void resetCoins(UUID player) {
-        try (Connection c = ds.getConnection()) {
+        try {
             double oldCoins = CoinsAPI.getCoins(player);
             if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, core.getConfig().getDouble("General.Starting Coins", 0), player).executeUpdate();
-                core.updateCache(player, core.getConfig().getDouble("General.Starting Coins"));
-                core.getMethods().callCoinsChangeEvent(player, oldCoins, core.getConfig().getDouble("General.Starting Coins"));
+                VersionedBalance balance = updateBalance(player, SQLQuery.UPDATE_COINS_ONLINE, core.getConfig().getSettings().getStartingCoins(), player);
+                core.updateCache(player, core.getConfig().getSettings().getStartingCoins(), balance.getVersion());
+                core.getMethods().callCoinsChangeEvent(player, oldCoins, core.getConfig().getSettings().getStartingCoins());
             }
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred reseting the coins of player: " + core.getNick(player));
@@ -326,11 +426,11 @@ public class SQLite implements Database {
 
     @Override
     public void setCoins(UUID player, Double coins) {
-        try (Connection c = ds.getConnection()) {
+        try {
             double oldCoins = CoinsAPI.getCoins(player);
             if (oldCoins > -1) {
-                Utils.generatePreparedStatement(c, SQLQuery.UPDATE_COINS_ONLINE, coins, player).executeUpdate();
-                core.updateCache(player, coins);
+                VersionedBalance balance = updateBalance(player, SQLQuery.UPDATE_COINS_ONLINE, coins, player);
+                core.updateCache(player, coins, balance.getVersion());
                 core.getMethods().callCoinsChangeEvent(player, oldCoins, coins);
             }
         } catch (SQLException ex) {
@@ -341,10 +441,11 @@ public class SQLite implements Database {
 
     @Override
     public boolean isindb(UUID player) {
-        try (Connection c = ds.getConnection(); ResultSet res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_ONLINE, player).executeQuery()) {
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, player)) {
             if (res.next()) {
                 return res.getString("uuid") != null;
             }
+            CacheManager.getMissingPlayers().add(player);
         } catch (SQLException ex) {
             core.log("&cAn internal error has occurred cheking if the player: " + player + " exists in the database.");
             core.debug(ex);
@@ -352,13 +453,110 @@ public class SQLite implements Database {
         return false;
     }
 
+    @Override
+    public boolean addCoins(Map<UUID, Double> coins, Collection<String> segments) {
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = Utils.generatePreparedStatement(c, SQLQuery.ADD_COINS_ONLINE); PreparedStatement journal = Utils.generatePreparedStatement(c, SQLQuery.INSERT_JOURNAL_SEGMENT)) {
+                for (Map.Entry<UUID, Double> entry : coins.entrySet()) {
+                    ps.setDouble(1, entry.getValue());
+                    ps.setString(2, entry.getKey().toString());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                for (String segment : segments) {
+                    journal.setString(1, segment);
+                    journal.addBatch();
+                }
+                journal.executeBatch();
+                c.commit();
+                return true;
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred adding coins to " + coins.size() + " players.");
+            core.debug(ex);
+        }
+        return false;
+    }
+
+    @Override
+    public Set<String> getCommittedSegments(String journal) {
+        Set<String> segments = new HashSet<>();
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SELECT_JOURNAL_SEGMENTS, journal + ":%")) {
+            while (res.next()) {
+                segments.add(res.getString("segment"));
+            }
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred reading the balance journal from the database.");
+            core.debug(ex);
+            return null;
+        }
+        return segments;
+    }
+
+    @Override
+    public void removeCommittedSegments(String journal) {
+        try (Connection c = ds.getConnection()) {
+            Utils.executeUpdate(c, SQLQuery.DELETE_JOURNAL_SEGMENTS, journal + ":%");
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred removing the balance journal from the database.");
+            core.debug(ex);
+        }
+    }
+
+    @Override
+    public TransferResult transfer(UUID from, UUID to, double amount) {
+        TransferResult result;
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                int taken;
+                int added;
+                if (from.compareTo(to) < 0) { // update the rows always in the same order so opposite transfers can't deadlock
+                    taken = Utils.executeUpdate(c, SQLQuery.TRANSFER_TAKE, amount, from, amount);
+                    added = taken == 0 ? 0 : Utils.executeUpdate(c, SQLQuery.ADD_COINS_ONLINE, amount, to);
+                } else {
+                    added = Utils.executeUpdate(c, SQLQuery.ADD_COINS_ONLINE, amount, to);
+                    taken = added == 0 ? 0 : Utils.executeUpdate(c, SQLQuery.TRANSFER_TAKE, amount, from, amount);
+                }
+                if (taken == 0 || added == 0) {
+                    c.rollback();
+                    return TransferResult.FAILED;
+                }
+                VersionedBalance fromBalance = readBalance(c, from);
+                VersionedBalance toBalance = readBalance(c, to);
+                result = new TransferResult(true, fromBalance.getBalance(), toBalance.getBalance(), fromBalance.getVersion(), toBalance.getVersion());
+                c.commit();
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred transfering " + amount + " coins from " + core.getNick(from) + " to " + core.getNick(to));
+            core.debug(ex);
+            return TransferResult.FAILED;
+        }
+        core.updateCache(from, result.getFromBalance(), result.getFromVersion());
+        core.updateCache(to, result.getToBalance(), result.getToVersion());
+        core.getMethods().callCoinsChangeEvent(from, result.getFromBalance() + amount, result.getFromBalance());
+        core.getMethods().callCoinsChangeEvent(to, result.getToBalance() - amount, result.getToBalance());
+        return result;
+    }
+
     @Override
     public List<String> getTop(int top) {
         List<String> toplist = new ArrayList<>();
         try (Connection c = ds.getConnection()) {
             ResultSet res = null;
             try {
-                res = Utils.generatePreparedStatement(c, SQLQuery.SELECT_TOP, top).executeQuery();
+                res = Utils.executeQuery(c, SQLQuery.SELECT_TOP, top);
                 while (res.next()) {
                     String playername = res.getString("nick");
                     int coins = (int) res.getDouble("balance");
@@ -383,7 +581,7 @@ public class SQLite implements Database {
         try (Connection c = ds.getConnection()) {
             ResultSet res = null;
             try {
-                res = Utils.generatePreparedStatement(c, SQLQuery.SELECT_TOP, top).executeQuery();
+                res = Utils.executeQuery(c, SQLQuery.SELECT_TOP, top);
                 while (res.next()) {
                     String playername = res.getString("nick");
                     double coins = res.getDouble("balance");
@@ -402,9 +600,125 @@ public class SQLite implements Database {
         return Utils.sortByValue(topplayers);
     }
 
-    private boolean isColumnMissing(DatabaseMetaData metaData, String table, String column) throws SQLException {
-        try (ResultSet res = metaData.getColumns(null, null, Database.prefix + table, column)) {
-            return !res.next();
+    /**
+     * Apply a delta based update to the balance of a player and read the resulting balance in the same transaction, so
+     * concurrent writers can't overwrite each other. If the player isn't in the database but is
+     * online, it is created with the starting balance and the update is applied again.
+     *
+     * @param player     The uuid or nick of the player, depending on the query.
+     * @param update     The update query to run.
+     * @param parameters The parameters for the update query.
+     * @return The new balance of the player with its version, or {@link VersionedBalance#MISSING} if the player isn't in
+     * the database.
+     * @throws SQLException if the update fails.
+     */
+    private VersionedBalance updateBalance(Object player, SQLQuery update, Object... parameters) throws SQLException {
+        VersionedBalance balance = executeBalanceUpdate(update, player instanceof UUID ? SQLQuery.SEARCH_USER_ONLINE : SQLQuery.SEARCH_USER_OFFLINE, player, parameters);
+        if (balance.getBalance() == -1 && createOnlinePlayer(player)) {
+            balance = executeBalanceUpdate(update, player instanceof UUID ? SQLQuery.SEARCH_USER_ONLINE : SQLQuery.SEARCH_USER_OFFLINE, player, parameters);
+        }
+        return balance;
+    }
+
+    /**
+     * Same as {@link #updateBalance(Object, SQLQuery, Object...)}, but the balance before the update is read in the
+     * same transaction.
+     *
+     * @param player     The uuid or nick of the player, depending on the query.
+     * @param update     The update query to run.
+     * @param parameters The parameters for the update query.
+     * @return The balance before and after the update with their versions, both are
+     * {@link VersionedBalance#MISSING} if the player isn't in the database.
+     * @throws SQLException if the update fails.
+     */
+    private VersionedBalance[] updateBalanceTracked(Object player, SQLQuery update, Object... parameters) throws SQLException {
+        VersionedBalance[] balances = executeTrackedUpdate(update, player, parameters);
+        if (balances[1].getBalance() == -1 && createOnlinePlayer(player)) {
+            balances = executeTrackedUpdate(update, player, parameters);
+        }
+        return balances;
+    }
+
+    /**
+     * Create a player that isn't in the database if it is online, this must be called only when an update didn't match
+     * any row, because conditional updates also don't match when the player doesn't have enough coins.
+     *
+     * @param player The uuid or nick of the player.
+     * @return true if the player is online and was created, false if the player is offline or already exists.
+     */
+    private boolean createOnlinePlayer(Object player) {
+        if (!(player instanceof UUID ? core.isOnline((UUID) player) : core.isOnline((String) player))) {
+            return false;
+        }
+        UUID uuid = player instanceof UUID ? (UUID) player : core.getUUID((String) player);
+        String nick = player instanceof UUID ? core.getNick((UUID) player) : (String) player;
+        try (Connection c = ds.getConnection()) {
+            try (ResultSet res = Utils.executeQuery(c, player instanceof UUID ? SQLQuery.SEARCH_USER_ONLINE : SQLQuery.SEARCH_USER_OFFLINE, player)) {
+                if (res.next()) { // the update was rejected by its condition, the player isn't missing
+                    return false;
+                }
+            }
+            createPlayer(c, nick, uuid, core.getConfig().getSettings().getStartingCoins());
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred creating the player: " + nick + " in the database.");
+            core.debug(ex);
+            return false;
+        }
+        return true;
+    }
+
+    private VersionedBalance executeBalanceUpdate(SQLQuery update, SQLQuery search, Object player, Object... parameters) throws SQLException {
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                if (Utils.executeUpdate(c, update, parameters) == 0) {
+                    c.rollback();
+                    return VersionedBalance.MISSING;
+                }
+                try (ResultSet res = Utils.executeQuery(c, search, player)) {
+                    VersionedBalance balance = res.next() ? new VersionedBalance(res.getDouble("balance"), res.getLong("version")) : VersionedBalance.MISSING;
+                    c.commit();
+                    return balance;
+                }
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
+    private VersionedBalance[] executeTrackedUpdate(SQLQuery update, Object player, Object... parameters) throws SQLException {
+        try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+            // a deferred transaction only takes the write lock at the update, so another connection could write after
+            // the read, the immediate transaction takes the write lock before reading the old balance
+            st.execute("BEGIN IMMEDIATE;");
+            try {
+                VersionedBalance before;
+                try (ResultSet res = Utils.executeQuery(c, player instanceof UUID ? SQLQuery.SEARCH_USER_ONLINE : SQLQuery.SEARCH_USER_OFFLINE, player)) {
+                    if (!res.next()) {
+                        st.execute("ROLLBACK;");
+                        return new VersionedBalance[]{VersionedBalance.MISSING, VersionedBalance.MISSING};
+                    }
+                    before = new VersionedBalance(res.getDouble("balance"), res.getLong("version"));
+                }
+                Utils.executeUpdate(c, update, parameters);
+                try (ResultSet res = Utils.executeQuery(c, player instanceof UUID ? SQLQuery.SEARCH_USER_ONLINE : SQLQuery.SEARCH_USER_OFFLINE, player)) {
+                    VersionedBalance after = res.next() ? new VersionedBalance(res.getDouble("balance"), res.getLong("version")) : VersionedBalance.MISSING;
+                    st.execute("COMMIT;");
+                    return new VersionedBalance[]{before, after};
+                }
+            } catch (SQLException ex) {
+                st.execute("ROLLBACK;");
+                throw ex;
+            }
+        }
+    }
+
+    private VersionedBalance readBalance(Connection c, UUID uuid) throws SQLException {
+        try (ResultSet res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, uuid)) {
+            return res.next() ? new VersionedBalance(res.getDouble("balance"), res.getLong("version")) : VersionedBalance.MISSING;
         }
     }
 
@@ -413,7 +727,7 @@ public class SQLite implements Database {
         try (Connection c = ds.getConnection()) {
             ResultSet res = null;
             try {
-                res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_ONLINE, uuid).executeQuery();
+                res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_ONLINE, uuid);
                 if (res.next()) {
                     return res.getString("nick");
                 }
@@ -435,10 +749,11 @@ public class SQLite implements Database {
         try (Connection c = ds.getConnection()) {
             ResultSet res = null;
             try {
-                res = Utils.generatePreparedStatement(c, SQLQuery.SEARCH_USER_OFFLINE, nick).executeQuery();
+                res = Utils.executeQuery(c, SQLQuery.SEARCH_USER_OFFLINE, nick);
                 if (res.next()) {
                     return UUID.fromString(res.getString("uuid"));
                 }
+                CacheManager.getMissingPlayers().add(nick);
             } finally {
                 if (res != null) {
                     res.close();
@@ -452,10 +767,25 @@ public class SQLite implements Database {
         return null;
     }
 
+    @Override
+    public Map<String, Double> getTopPlayersData(int top) {
+        Map<String, Double> data = new LinkedHashMap<>();
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SELECT_TOP, top)) {
+            while (res.next()) {
+                data.put(res.getString("nick") + "," + res.getString("uuid"), res.getDouble("balance"));
+            }
+        } catch (SQLException ex) {
+            core.log("&cAn internal error has occurred generating the toplist");
+            core.debug(ex);
+            return null;
+        }
+        return data;
+    }
+
     @Override
     public Map<String, Double> getAllPlayers() {
         Map<String, Double> data = new HashMap<>();
-        try (Connection c = ds.getConnection(); ResultSet res = c.prepareStatement("SELECT * FROM " + CoinsCore.getInstance().getConfig().getString("MySQL.Prefix") + "Data;").executeQuery()) {
+        try (Connection c = ds.getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SELECT_ALL)) {
             while (res.next()) {
                 data.put(res.getString("nick") + "," + res.getString("uuid"), res.getDouble("balance"));
             }
@@ -468,6 +798,7 @@ public class SQLite implements Database {
 
     @Override
     public void shutdown() {
+        Database.Utils.setStatementCache(null);
         ds.close();
     }
 }
@@ -0,0 +1,164 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.database;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+
+/**
+ * Apply the changes to the database schema in order, the version of the schema is saved in the database so every
+ * migration is only applied once.
+ *
+ * @author Beelzebu
+ */
+public class SchemaMigrator {
+
+    private final CoinsCore core;
+    private final List<Migration> migrations = new ArrayList<>();
+    private final List<String> descriptions = new ArrayList<>();
+
+    public SchemaMigrator(CoinsCore core) {
+        this.core = core;
+    }
+
+    /**
+     * Add a migration, the version of the migration is the order in which it is added starting from 1.
+     *
+     * @param description What this migration changes.
+     * @param migration   The migration to apply.
+     * @return This migrator.
+     */
+    public SchemaMigrator add(String description, Migration migration) {
+        descriptions.add(description);
+        migrations.add(migration);
+        return this;
+    }
+
+    /**
+     * Apply all the migrations that weren't applied before. Servers that share the database may start at the same
+     * time, on MySQL the migrations are serialized with a named lock because the changes to the schema can't be rolled
+     * back, on other databases every migration checks the version and saves the new version in the same transaction.
+     *
+     * @param c The connection to use.
+     * @throws SQLException if a migration fails, the migrations before it are kept.
+     */
+    public void migrate(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS `" + Database.prefix + "SchemaVersion`"
+                    + "(`version` INT NOT NULL PRIMARY KEY,"
+                    + "`description` VARCHAR(100),"
+                    + "`installed` BIGINT);");
+        }
+        String lock = isMySQL(c) ? "coins_schema_" + c.getCatalog() + "_" + Database.prefix : null;
+        if (lock != null) {
+            try (PreparedStatement ps = c.prepareStatement("SELECT GET_LOCK(?, 60);")) {
+                ps.setString(1, lock);
+                try (ResultSet res = ps.executeQuery()) {
+                    if (!res.next() || res.getInt(1) != 1) {
+                        throw new SQLException("Timed out waiting for another server to update the database schema.");
+                    }
+                }
+            }
+        }
+        try {
+            boolean autoCommit = c.getAutoCommit();
+            c.setAutoCommit(false);
+            try {
+                int version;
+                while ((version = getVersion(c)) < migrations.size()) {
+                    try {
+                        migrations.get(version).migrate(c);
+                        try (PreparedStatement ps = c.prepareStatement("INSERT INTO `" + Database.prefix + "SchemaVersion` (`version`, `description`, `installed`) VALUES (?, ?, ?);")) {
+                            ps.setInt(1, version + 1);
+                            ps.setString(2, descriptions.get(version));
+                            ps.setLong(3, System.currentTimeMillis());
+                            ps.executeUpdate();
+                        }
+                        c.commit();
+                        core.log("Database schema updated to v" + (version + 1) + ": " + descriptions.get(version));
+                    } catch (SQLException ex) {
+                        c.rollback();
+                        if (getVersion(c) > version) { // another server applied it first
+                            c.commit();
+                            continue;
+                        }
+                        core.log("Can't update the database schema to v" + (version + 1) + ": " + descriptions.get(version));
+                        throw ex;
+                    }
+                }
+                c.commit();
+            } finally {
+                c.setAutoCommit(autoCommit);
+            }
+        } finally {
+            if (lock != null) {
+                try (PreparedStatement ps = c.prepareStatement("SELECT RELEASE_LOCK(?);")) {
+                    ps.setString(1, lock);
+                    ps.executeQuery().close();
+                }
+            }
+        }
+    }
+
+    private int getVersion(Connection c) throws SQLException {
+        try (Statement st = c.createStatement(); ResultSet res = st.executeQuery("SELECT MAX(`version`) FROM `" + Database.prefix + "SchemaVersion`;")) {
+            return res.next() ? res.getInt(1) : 0;
+        }
+    }
+
+    private static boolean isMySQL(Connection c) throws SQLException {
+        String product = c.getMetaData().getDatabaseProductName();
+        return product != null && (product.equalsIgnoreCase("MySQL") || product.equalsIgnoreCase("MariaDB"));
+    }
+
+    /**
+     * Check if a table has a column, the table name must not include the prefix.
+     */
+    public static boolean hasColumn(Connection c, String table, String column) throws SQLException {
+        try (ResultSet res = c.getMetaData().getColumns(c.getCatalog(), null, Database.prefix + table, column)) {
+            return res.next();
+        }
+    }
+
+    /**
+     * Check if a table has an index with the specified name, the table name must not include the prefix.
+     */
+    public static boolean hasIndex(Connection c, String table, String index) throws SQLException {
+        DatabaseMetaData md = c.getMetaData();
+        try (ResultSet res = md.getIndexInfo(c.getCatalog(), null, Database.prefix + table, false, false)) {
+            while (res.next()) {
+                if (index.equalsIgnoreCase(res.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    public interface Migration {
+
+        void migrate(Connection c) throws SQLException;
+    }
+}
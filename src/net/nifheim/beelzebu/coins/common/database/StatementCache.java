@@ -0,0 +1,142 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements cached per physical connection, for drivers that don't cache them like the SQLite driver. Hikari
+ * closes the statements prepared with its proxy when the connection is returned to the pool, so the statements are
+ * prepared in the connection that the proxy wraps and live until that connection is closed or they're evicted.
+ * <p>
+ * A statement is checked out while it's used, if the same query is needed again before the statement is released
+ * {@link #checkout(Connection, String)} returns null and the caller prepares an uncached statement.
+ *
+ * @author Beelzebu
+ */
+final class StatementCache {
+
+    private final int size;
+    private final Map<Connection, Map<String, PreparedStatement>> statements = new IdentityHashMap<>();
+    private final Set<PreparedStatement> checkedOut = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param size The max amount of statements cached for every connection.
+     */
+    StatementCache(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Get the cached statement for a query or prepare it if it isn't cached.
+     *
+     * @param c   The connection borrowed from the pool.
+     * @param sql The query to prepare.
+     * @return The statement, that must be {@link #release(PreparedStatement) released} instead of closed, or null if
+     * the cached statement is already checked out.
+     * @throws SQLException if the statement can't be prepared.
+     */
+    synchronized PreparedStatement checkout(Connection c, String sql) throws SQLException {
+        Connection physical = c.unwrap(Connection.class);
+        Map<String, PreparedStatement> cached = statements.get(physical);
+        if (cached == null) {
+            statements.keySet().removeIf(StatementCache::isClosed); // the pool retired them, so did their statements
+            cached = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > size) {
+                        if (!checkedOut.contains(eldest.getValue())) { // a checked out statement is closed when released
+                            close(eldest.getValue());
+                        }
+                        return true;
+                    }
+                    return false;
+                }
+            };
+            statements.put(physical, cached);
+        }
+        PreparedStatement ps = cached.get(sql);
+        if (ps != null && ps.isClosed()) {
+            cached.remove(sql);
+            ps = null;
+        }
+        if (ps == null) {
+            ps = Database.Utils.prepare(physical, sql);
+            cached.put(sql, ps);
+        } else if (checkedOut.contains(ps)) {
+            return null;
+        } else {
+            hits.incrementAndGet();
+        }
+        checkedOut.add(ps);
+        return ps;
+    }
+
+    /**
+     * Return a statement to the cache, it's closed if it was evicted while it was checked out.
+     *
+     * @param ps The statement returned by {@link #checkout(Connection, String)}.
+     */
+    synchronized void release(PreparedStatement ps) {
+        checkedOut.remove(ps);
+        if (statements.values().stream().noneMatch(cached -> cached.containsValue(ps))) {
+            close(ps);
+        }
+    }
+
+    /**
+     * Close every cached statement.
+     */
+    synchronized void clear() {
+        statements.values().forEach(cached -> cached.values().forEach(StatementCache::close));
+        statements.clear();
+        checkedOut.clear();
+    }
+
+    /**
+     * Get the amount of times that a cached statement was used instead of preparing it again.
+     *
+     * @return The amount of reused statements.
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    private static boolean isClosed(Connection c) {
+        try {
+            return c.isClosed();
+        } catch (SQLException ex) {
+            return true;
+        }
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignore) { // the connection was closed
+        }
+    }
+}
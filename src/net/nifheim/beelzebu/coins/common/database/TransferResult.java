@@ -0,0 +1,40 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.database;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The result of a transfer of coins between two players.
+ *
+ * @author Beelzebu
+ */
+@Getter
+@AllArgsConstructor
+public class TransferResult {
+
+    /**
+     * Result used when the transfer couldn't be done, the balances are -1.
+     */
+    public static final TransferResult FAILED = new TransferResult(false, -1, -1, -1, -1);
+    private final boolean success;
+    private final double fromBalance;
+    private final double toBalance;
+    private final long fromVersion;
+    private final long toVersion;
+}
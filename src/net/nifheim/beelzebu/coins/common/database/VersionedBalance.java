@@ -0,0 +1,62 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.database;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import net.nifheim.beelzebu.coins.common.utils.BalanceCache;
+
+/**
+ * The balance of a player with the version of his row in the database, the version is increased with every change of
+ * the balance.
+ *
+ * @author Beelzebu
+ */
+@Getter
+@AllArgsConstructor
+public class VersionedBalance {
+
+    /**
+     * Balance used when the player isn't in the database.
+     */
+    public static final VersionedBalance MISSING = new VersionedBalance(-1, BalanceCache.UNKNOWN_VERSION);
+    private final double balance;
+    private final long version;
+
+    /**
+     * Get the newest of two balances, see {@link #replaces(long, long)}.
+     *
+     * @param old     The old balance.
+     * @param current The balance received after the old balance.
+     * @return The newest balance.
+     */
+    public static VersionedBalance latest(VersionedBalance old, VersionedBalance current) {
+        return replaces(current.version, old.version) ? current : old;
+    }
+
+    /**
+     * Check if a balance received after another balance replaces it, this is the rule used by the cache and by every
+     * queue that merges balances. A balance without version only replaces another balance without version.
+     *
+     * @param version    The version of the balance received later.
+     * @param oldVersion The version of the balance received before.
+     * @return true if the balance received later must be kept.
+     */
+    public static boolean replaces(long version, long oldVersion) {
+        return version >= oldVersion; // UNKNOWN_VERSION is lower than every version from the database
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.nifheim.beelzebu.coins.common.database.VersionedBalance;
+import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
+
+/**
+ * Binary format for the messages sent between the servers in the messaging channel.
+ * <p>
+ * Every frame starts with a marker byte that can't be the first byte of the old messages written with writeUTF, the
+ * version of the protocol and the type of the frame. Update frames carry the balances of many players, with the uuid
+ * as two longs, the balance as a double and the version of the balance as a long. Interest frames are sent by the
+ * servers when they cache a player, so BungeeCord only sends the updates of that player to the servers that have him
+ * cached.
+ * </p>
+ *
+ * @author Beelzebu
+ */
+public final class MessageProtocol {
+
+    public static final int VERSION = 1;
+    public static final byte UPDATE = 1;
+    public static final byte MULTIPLIER = 2;
+    public static final byte INTEREST = 3;
+    private static final int MARKER = 0xC0;
+    /**
+     * Max amount of balances in a frame, so the frame fits in a plugin message.
+     */
+    private static final int MAX_UPDATES = 1000;
+
+    private MessageProtocol() {
+    }
+
+    /**
+     * Check if a message uses this protocol or is an old message.
+     *
+     * @param message The message to check.
+     * @return true if the message is a frame of this protocol.
+     */
+    public static boolean isFrame(byte[] message) {
+        return message.length >= 3 && (message[0] & 0xFF) == MARKER;
+    }
+
+    /**
+     * Get the type of a frame.
+     *
+     * @param message The frame.
+     * @return The type of the frame or -1 if it isn't a frame.
+     */
+    public static int getType(byte[] message) {
+        return isFrame(message) ? message[2] : -1;
+    }
+
+    public static byte[] encodeUpdate(UUID uuid, double balance, long version) {
+        return encodeUpdates(Collections.singletonMap(uuid, new VersionedBalance(balance, version)));
+    }
+
+    /**
+     * Encode the balances of many players in a single frame.
+     *
+     * @param balances The balance of every player.
+     * @return The frame.
+     */
+    public static byte[] encodeUpdates(Map<UUID, VersionedBalance> balances) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(7 + balances.size() * 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, UPDATE);
+            out.writeInt(balances.size());
+            for (Map.Entry<UUID, VersionedBalance> entry : balances.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeDouble(entry.getValue().getBalance());
+                out.writeLong(entry.getValue().getVersion());
+            }
+        } catch (IOException ex) { // can't happen writing to memory
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode the balances of many players in as many frames as needed to keep every frame small enough for a plugin
+     * message.
+     *
+     * @param balances The balance of every player.
+     * @return The frames.
+     */
+    public static List<byte[]> encodeUpdateFrames(Map<UUID, VersionedBalance> balances) {
+        if (balances.size() <= MAX_UPDATES) {
+            return Collections.singletonList(encodeUpdates(balances));
+        }
+        List<byte[]> frames = new ArrayList<>();
+        Map<UUID, VersionedBalance> frame = new LinkedHashMap<>();
+        for (Map.Entry<UUID, VersionedBalance> entry : balances.entrySet()) {
+            frame.put(entry.getKey(), entry.getValue());
+            if (frame.size() == MAX_UPDATES) {
+                frames.add(encodeUpdates(frame));
+                frame = new LinkedHashMap<>();
+            }
+        }
+        if (!frame.isEmpty()) {
+            frames.add(encodeUpdates(frame));
+        }
+        return frames;
+    }
+
+    public static byte[] encodeMultiplier(Multiplier multiplier) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, MULTIPLIER);
+            out.writeUTF(multiplier.getServer());
+            out.writeBoolean(multiplier.isEnabled());
+            out.writeUTF(multiplier.getEnabler() != null ? multiplier.getEnabler() : "");
+            out.writeInt(multiplier.getAmount());
+            out.writeLong(System.currentTimeMillis() + multiplier.checkTime());
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode a frame telling BungeeCord if this server has a player cached or not.
+     *
+     * @param uuid       The player.
+     * @param interested true if the player was cached, false if was removed from the cache.
+     * @return The frame.
+     */
+    public static byte[] encodeInterest(UUID uuid, boolean interested) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(20);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, INTEREST);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+            out.writeBoolean(interested);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a frame and pass its content to the handler.
+     *
+     * @param message The frame to read.
+     * @param handler The handler for the content of the frame.
+     * @throws IOException if the message isn't a frame, is from another version or is truncated.
+     */
+    public static void decode(byte[] message, Handler handler) throws IOException {
+        if (!isFrame(message)) {
+            throw new IOException("The message isn't a frame.");
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+            in.readUnsignedByte();
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported protocol version " + version + ", this server uses the version " + VERSION + ".");
+            }
+            byte type = in.readByte();
+            switch (type) {
+                case UPDATE:
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        handler.onUpdate(new UUID(in.readLong(), in.readLong()), in.readDouble(), in.readLong());
+                    }
+                    break;
+                case MULTIPLIER:
+                    String server = in.readUTF();
+                    boolean enabled = in.readBoolean();
+                    String enabler = in.readUTF();
+                    handler.onMultiplier(new Multiplier(server, enabler.isEmpty() ? null : enabler, enabled, in.readInt(), in.readLong()));
+                    break;
+                case INTEREST:
+                    handler.onInterest(new UUID(in.readLong(), in.readLong()), in.readBoolean());
+                    break;
+                default:
+                    throw new IOException("Unknown frame type " + type + ".");
+            }
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, byte type) throws IOException {
+        out.writeByte(MARKER);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+    }
+
+    /**
+     * Receives the content of the frames.
+     */
+    public interface Handler {
+
+        default void onUpdate(UUID uuid, double balance, long version) {
+        }
+
+        default void onMultiplier(Multiplier multiplier) {
+        }
+
+        default void onInterest(UUID uuid, boolean interested) {
+        }
+    }
+}
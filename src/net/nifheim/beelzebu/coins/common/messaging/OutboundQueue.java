@@ -0,0 +1,146 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.messaging;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.nifheim.beelzebu.coins.common.database.VersionedBalance;
+
+/**
+ * Keeps the messages that can't be sent because there are no players online until they can be sent.
+ * <p>
+ * Balance updates are merged so only the newest balance of every player is kept, the other messages are kept in the
+ * order they were queued even if the same message is queued many times. When the queue is full the oldest messages
+ * are dropped, and then the oldest balances.
+ * </p>
+ *
+ * @author Beelzebu
+ */
+public final class OutboundQueue {
+
+    private final int capacity;
+    private final Map<UUID, VersionedBalance> balances = new LinkedHashMap<>();
+    private final Deque<byte[]> messages = new ArrayDeque<>();
+    private long queued = 0;
+    private long merged = 0;
+    private long dropped = 0;
+    private long drained = 0;
+
+    /**
+     * @param capacity The max amount of balances and messages to keep.
+     */
+    public OutboundQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void offer(byte[] message) {
+        queued++;
+        if (MessageProtocol.getType(message) == MessageProtocol.UPDATE) {
+            try {
+                MessageProtocol.decode(message, new MessageProtocol.Handler() {
+                    @Override
+                    public void onUpdate(UUID uuid, double balance, long version) {
+                        VersionedBalance old = balances.remove(uuid);
+                        if (old != null) {
+                            merged++;
+                        }
+                        VersionedBalance current = new VersionedBalance(balance, version);
+                        balances.put(uuid, old != null ? VersionedBalance.latest(old, current) : current);
+                    }
+                });
+            } catch (IOException ex) { // we encoded it, so this can't happen
+                throw new IllegalStateException(ex);
+            }
+        } else {
+            messages.add(message);
+        }
+        while (balances.size() + messages.size() > capacity) {
+            if (!messages.isEmpty()) {
+                messages.removeFirst();
+            } else {
+                Iterator<UUID> oldest = balances.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            dropped++;
+        }
+    }
+
+    /**
+     * Remove all the queued messages, the balance updates are returned as the last frames.
+     *
+     * @return The messages to send.
+     */
+    public synchronized List<byte[]> drain() {
+        List<byte[]> drain = new ArrayList<>(messages);
+        if (!balances.isEmpty()) {
+            drain.addAll(MessageProtocol.encodeUpdateFrames(balances));
+        }
+        messages.clear();
+        balances.clear();
+        drained += drain.size();
+        return drain;
+    }
+
+    public synchronized int size() {
+        return balances.size() + messages.size();
+    }
+
+    /**
+     * Get the amount of messages that were queued since the plugin was enabled.
+     *
+     * @return The amount of queued messages.
+     */
+    public synchronized long getQueued() {
+        return queued;
+    }
+
+    /**
+     * Get the amount of queued balance updates that were merged with the update of the same player already in the
+     * queue.
+     *
+     * @return The amount of merged messages.
+     */
+    public synchronized long getMerged() {
+        return merged;
+    }
+
+    /**
+     * Get the amount of messages dropped because the queue was full.
+     *
+     * @return The amount of dropped messages.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get the amount of messages sent after they were queued.
+     *
+     * @return The amount of drained messages.
+     */
+    public synchronized long getDrained() {
+        return drained;
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.messaging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+
+/**
+ * Sends the frames to all the servers using the pub/sub of a Redis server, this doesn't need BungeeCord or players
+ * online in the server.
+ * <p>
+ * Every message starts with an id of this server, so the messages published by this server are ignored when they are
+ * received back from Redis.
+ * </p>
+ * <p>
+ * The subscription sends a PING when nothing was received for a while, if the PING isn't answered either the
+ * connection is considered dead and a new one is opened, so a connection dropped without a FIN isn't kept forever.
+ * </p>
+ *
+ * @author Beelzebu
+ */
+public final class RedisTransport implements SyncTransport {
+
+    private static final int TIMEOUT = 5000;
+    private static final int PING_INTERVAL = 30000;
+    private static final long RECONNECT_DELAY = 5000;
+    private final String host;
+    private final int port;
+    private final String password;
+    private final byte[] channel;
+    private final byte[] origin;
+    private final int pingInterval;
+    private final long reconnectDelay;
+    private final Consumer<String> log;
+    private final Consumer<String> debug;
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor(rn -> {
+        Thread thread = new Thread(rn, "Coins Redis Publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running;
+    private volatile Socket subscription;
+    private Socket connection;
+
+    public RedisTransport(String host, int port, String password, String channel) {
+        this(host, port, password, channel, PING_INTERVAL, RECONNECT_DELAY, CoinsCore.getInstance()::log, CoinsCore.getInstance()::debug);
+    }
+
+    /**
+     * @param pingInterval   The milliseconds without receiving anything before the subscription sends a PING, and
+     *                       the milliseconds to wait for any reply to the PING.
+     * @param reconnectDelay The milliseconds to wait before connecting again when the connection is lost.
+     * @param log            Where the messages about the connection are logged.
+     * @param debug          Where the errors are logged.
+     */
+    RedisTransport(String host, int port, String password, String channel, int pingInterval, long reconnectDelay, Consumer<String> log, Consumer<String> debug) {
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.channel = channel.getBytes(StandardCharsets.UTF_8);
+        this.pingInterval = pingInterval;
+        this.reconnectDelay = reconnectDelay;
+        this.log = log;
+        this.debug = debug;
+        UUID id = UUID.randomUUID();
+        origin = ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array();
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        running = true;
+        Thread subscriber = new Thread(() -> subscribe(receiver), "Coins Redis Subscriber");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    @Override
+    public void publish(byte[] frame) {
+        if (publisher.isShutdown()) {
+            return;
+        }
+        byte[] message = new byte[origin.length + frame.length];
+        System.arraycopy(origin, 0, message, 0, origin.length);
+        System.arraycopy(frame, 0, message, origin.length, frame.length);
+        publisher.execute(() -> {
+            // try again with a new connection if the old one was closed by the server
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    if (connection == null) {
+                        connection = connect();
+                    }
+                    write(connection.getOutputStream(), "PUBLISH".getBytes(StandardCharsets.UTF_8), channel, message);
+                    read(connection.getInputStream());
+                    return;
+                } catch (IOException ex) {
+                    close(connection);
+                    connection = null;
+                    if (attempt == 1) {
+                        log.accept("&cCan't publish a message to Redis, check that the server is online and the settings in the config.");
+                        debug.accept(ex.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean isBroadcast() {
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        close(subscription);
+        publisher.shutdown();
+        try {
+            publisher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        close(connection);
+    }
+
+    private void subscribe(Consumer<byte[]> receiver) {
+        boolean connected = true;
+        while (running) {
+            try (Socket socket = connect()) {
+                subscription = socket;
+                if (!running) { // shutdown was called while connecting
+                    return;
+                }
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                write(out, "SUBSCRIBE".getBytes(StandardCharsets.UTF_8), channel);
+                socket.setSoTimeout(pingInterval);
+                if (!connected) {
+                    log.accept("The connection with Redis was established again.");
+                }
+                connected = true;
+                boolean pinged = false;
+                while (running) {
+                    int type;
+                    try {
+                        type = in.read();
+                    } catch (SocketTimeoutException ex) { // only between replies, a timeout inside a reply is an error
+                        if (pinged) {
+                            throw new IOException("Redis didn't answer the PING in " + pingInterval + "ms.");
+                        }
+                        write(out, "PING".getBytes(StandardCharsets.UTF_8));
+                        pinged = true;
+                        continue;
+                    }
+                    pinged = false;
+                    Object reply = read(in, type); // the answer to a PING is a "pong" array, it's ignored here
+                    if (!(reply instanceof Object[]) || ((Object[]) reply).length != 3 || !Arrays.equals("message".getBytes(StandardCharsets.UTF_8), (byte[]) ((Object[]) reply)[0])) {
+                        continue;
+                    }
+                    byte[] message = (byte[]) ((Object[]) reply)[2];
+                    if (message.length > origin.length && !Arrays.equals(origin, Arrays.copyOf(message, origin.length))) {
+                        receiver.accept(Arrays.copyOfRange(message, origin.length, message.length));
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                if (!running) {
+                    return;
+                }
+                if (connected) {
+                    log.accept("&cThe connection with Redis was lost, trying to connect again every " + reconnectDelay / 1000 + " seconds.");
+                    debug.accept(ex.getMessage());
+                    connected = false;
+                }
+                try {
+                    Thread.sleep(reconnectDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+            socket.setSoTimeout(TIMEOUT);
+            socket.setTcpNoDelay(true);
+            if (password != null && !password.isEmpty()) {
+                write(socket.getOutputStream(), "AUTH".getBytes(StandardCharsets.UTF_8), password.getBytes(StandardCharsets.UTF_8));
+                read(socket.getInputStream());
+            }
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+        return socket;
+    }
+
+    private static void close(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Write a command using the Redis protocol, every argument is sent as a bulk string.
+     */
+    private static void write(OutputStream out, byte[]... arguments) throws IOException {
+        OutputStream buffer = new BufferedOutputStream(out);
+        buffer.write(('*' + String.valueOf(arguments.length) + "\r\n").getBytes(StandardCharsets.UTF_8));
+        for (byte[] argument : arguments) {
+            buffer.write(('$' + String.valueOf(argument.length) + "\r\n").getBytes(StandardCharsets.UTF_8));
+            buffer.write(argument);
+            buffer.write('\r');
+            buffer.write('\n');
+        }
+        buffer.flush();
+    }
+
+    /**
+     * Read a reply of the Redis protocol, bulk strings are returned as byte arrays and arrays as object arrays.
+     *
+     * @throws IOException if the connection was closed or Redis replied with an error.
+     */
+    private static Object read(InputStream in) throws IOException {
+        return read(in, in.read());
+    }
+
+    /**
+     * Read the rest of a reply of the Redis protocol whose type was already read.
+     */
+    private static Object read(InputStream in, int type) throws IOException {
+        String line = readLine(in);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                throw new IOException("Redis replied with an error: " + line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] data = new byte[length];
+                for (int read = 0; read < length;) {
+                    int count = in.read(data, read, length - read);
+                    if (count < 0) {
+                        throw new EOFException();
+                    }
+                    read += count;
+                }
+                readLine(in);
+                return data;
+            }
+            case '*': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                Object[] array = new Object[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = read(in);
+                }
+                return array;
+            }
+            case -1:
+                throw new EOFException();
+            default:
+                throw new IOException("Unknown reply type: " + (char) type);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            line.write(b);
+        }
+        if (in.read() != '\n') {
+            throw new IOException("Invalid line ending in the reply.");
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
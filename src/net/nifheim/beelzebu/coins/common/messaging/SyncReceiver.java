@@ -0,0 +1,68 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.messaging;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.function.Consumer;
+import net.nifheim.beelzebu.coins.CoinsAPI;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
+import net.nifheim.beelzebu.coins.common.utils.CacheManager;
+
+/**
+ * Applies the frames received from other servers to the cache of this server.
+ *
+ * @author Beelzebu
+ */
+public final class SyncReceiver implements MessageProtocol.Handler, Consumer<byte[]> {
+
+    private final CoinsCore core = CoinsCore.getInstance();
+    private final String source;
+
+    /**
+     * @param source The name of the source of the frames, used in the error messages.
+     */
+    public SyncReceiver(String source) {
+        this.source = source;
+    }
+
+    @Override
+    public void accept(byte[] frame) {
+        try {
+            MessageProtocol.decode(frame, this);
+        } catch (IOException ex) {
+            core.log("&cAn invalid message was received from " + source + ", check that all the servers use the same version of the plugin.");
+            core.debug(ex);
+        }
+    }
+
+    @Override
+    public void onUpdate(UUID uuid, double balance, long version) {
+        CacheManager.updateCoins(uuid, balance, version);
+    }
+
+    @Override
+    public void onMultiplier(Multiplier multiplier) {
+        core.getMethods().runSync(() -> {
+            if (multiplier.isEnabled() && multiplier.getID() != CoinsAPI.getMultiplier().getID()) {
+                CacheManager.addMultiplier(multiplier.getServer(), multiplier);
+                core.getMethods().callMultiplierEnableEvent(core.getUUID(multiplier.getEnabler()), multiplier.getData());
+            }
+        });
+    }
+}
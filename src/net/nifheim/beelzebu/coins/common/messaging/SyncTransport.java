@@ -0,0 +1,51 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.messaging;
+
+import java.util.function.Consumer;
+
+/**
+ * Sends the frames of the {@link MessageProtocol} to the other servers of the network.
+ *
+ * @author Beelzebu
+ */
+public interface SyncTransport {
+
+    /**
+     * Start receiving the frames sent by other servers.
+     *
+     * @param receiver The receiver for the frames.
+     */
+    void start(Consumer<byte[]> receiver);
+
+    /**
+     * Send a frame to the other servers, this may be done in another thread.
+     *
+     * @param frame The frame to send.
+     */
+    void publish(byte[] frame);
+
+    /**
+     * Check if every frame published by this transport reaches all the servers, if this is false the frames are
+     * routed by BungeeCord and the servers must tell it which players they have cached.
+     *
+     * @return true if frames are sent to all the servers.
+     */
+    boolean isBroadcast();
+
+    void shutdown();
+}
@@ -0,0 +1,218 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.messaging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+import net.nifheim.beelzebu.coins.common.database.VersionedBalance;
+
+/**
+ * Collects the balance updates sent to the servers during a short window and sends them in a single frame per server,
+ * if the balance of a player changes many times in the window only the newest balance is sent.
+ * <p>
+ * Updates are only sent to the servers that have the player cached, a server is registered for a player when the
+ * player connects to it, when it sends an update for the player or when it looks up the player. The servers that only
+ * sent or looked up the balance are unregistered after the time that the balance is kept in their cache.
+ * </p>
+ *
+ * @author Beelzebu
+ */
+public final class UpdateBatcher {
+
+    private static final long LOOKUP_TTL = TimeUnit.MINUTES.toMillis(10); // the expiry of the balance cache
+    private final ScheduledThreadPoolExecutor flusher = new ScheduledThreadPoolExecutor(1, rn -> {
+        Thread thread = new Thread(rn, "Coins Update Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<UUID, Map<String, Long>> interest = new ConcurrentHashMap<>(); // server -> expiry time
+    private final IntSupplier servers;
+    private final BiConsumer<String, byte[]> sink;
+    private final long window;
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private Map<String, Map<UUID, VersionedBalance>> pending = new HashMap<>();
+
+    /**
+     * @param servers Supplies the amount of servers in the network, used for the counters.
+     * @param sink    Sends a frame to the server with the specified name.
+     * @param window  The time in milliseconds to wait for more updates before sending the frames.
+     */
+    public UpdateBatcher(IntSupplier servers, BiConsumer<String, byte[]> sink, long window) {
+        this.servers = servers;
+        this.sink = sink;
+        this.window = window;
+        flusher.scheduleAtFixedRate(this::purge, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Queue the balance of a player to be sent in the next frame to the servers that have the player cached.
+     *
+     * @param uuid    The player.
+     * @param balance The new balance of the player with its version.
+     */
+    public void add(UUID uuid, VersionedBalance balance) {
+        add(uuid, balance, null);
+    }
+
+    /**
+     * Queue the balance of a player to be sent in the next frame to the servers that have the player cached, except
+     * the server that sent the balance.
+     *
+     * @param uuid    The player.
+     * @param balance The new balance of the player with its version.
+     * @param sender  The name of the server that sent the balance, or null if it wasn't sent by a server.
+     */
+    public void add(UUID uuid, VersionedBalance balance, String sender) {
+        updates.incrementAndGet();
+        long now = System.currentTimeMillis();
+        List<String> targets = new ArrayList<>();
+        interest.computeIfPresent(uuid, (k, registered) -> {
+            registered.values().removeIf(expiry -> expiry < now);
+            registered.keySet().stream().filter(server -> !server.equals(sender)).forEach(targets::add);
+            // the servers put the balance they receive in their cache, so they keep it for another full expiry
+            targets.forEach(server -> registered.computeIfPresent(server, (k, expiry) -> expiry == Long.MAX_VALUE ? expiry : now + LOOKUP_TTL));
+            return registered.isEmpty() ? null : registered;
+        });
+        skipped.addAndGet(Math.max(0, servers.getAsInt() - targets.size()));
+        if (targets.isEmpty()) {
+            return;
+        }
+        boolean schedule;
+        synchronized (this) {
+            schedule = pending.isEmpty();
+            for (String server : targets) {
+                pending.computeIfAbsent(server, k -> new LinkedHashMap<>()).merge(uuid, balance, VersionedBalance::latest);
+                routed.incrementAndGet();
+            }
+        }
+        if (schedule && !flusher.isShutdown()) {
+            flusher.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Register a server as interested in the updates of a player until the player leaves the server.
+     *
+     * @param uuid   The player.
+     * @param server The name of the server where the player is connected.
+     */
+    public void register(UUID uuid, String server) {
+        register(uuid, server, Long.MAX_VALUE);
+    }
+
+    /**
+     * Register a server as interested in the updates of a player while the balance is in the cache of the server.
+     *
+     * @param uuid   The player.
+     * @param server The name of the server that looked up or sent the balance of the player.
+     */
+    public void registerLookup(UUID uuid, String server) {
+        register(uuid, server, System.currentTimeMillis() + LOOKUP_TTL);
+    }
+
+    private void register(UUID uuid, String server, long expiry) {
+        interest.compute(uuid, (k, registered) -> {
+            if (registered == null) {
+                registered = new HashMap<>();
+            }
+            registered.merge(server, expiry, Math::max);
+            return registered;
+        });
+    }
+
+    public void unregister(UUID uuid, String server) {
+        interest.computeIfPresent(uuid, (k, v) -> {
+            v.remove(server);
+            return v.isEmpty() ? null : v;
+        });
+    }
+
+    /**
+     * Remove the expired lookups of the players that didn't get any update.
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        interest.keySet().forEach(uuid -> interest.computeIfPresent(uuid, (k, registered) -> {
+            registered.values().removeIf(expiry -> expiry < now);
+            return registered.isEmpty() ? null : registered;
+        }));
+    }
+
+    /**
+     * Send all the queued balances now.
+     */
+    public void flush() {
+        Map<String, Map<UUID, VersionedBalance>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+        }
+        batch.forEach((server, balances) -> MessageProtocol.encodeUpdateFrames(balances).forEach(frame -> {
+            frames.incrementAndGet();
+            sink.accept(server, frame);
+        }));
+    }
+
+    public void shutdown() {
+        flusher.shutdown();
+        flush();
+    }
+
+    /**
+     * Get the amount of balance updates queued since the plugin was enabled.
+     *
+     * @return The amount of updates.
+     */
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    /**
+     * Get the amount of frames sent since the plugin was enabled.
+     *
+     * @return The amount of frames.
+     */
+    public long getFrames() {
+        return frames.get();
+    }
+
+    /**
+     * Get the amount of messages that weren't sent because the updates were batched or the server didn't have the
+     * player cached.
+     *
+     * @return The amount of saved messages.
+     */
+    public long getSaved() {
+        return skipped.get() + routed.get() - frames.get();
+    }
+}
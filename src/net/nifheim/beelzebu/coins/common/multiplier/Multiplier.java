@@ -16,10 +16,6 @@
  */
 package net.nifheim.beelzebu.coins.common.multiplier;
 
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -33,21 +29,18 @@ import net.nifheim.beelzebu.coins.common.CoinsCore;
 public final class Multiplier {
 
     private final CoinsCore core = CoinsCore.getInstance();
-    private final String prefix = core.isMySQL() ? core.getConfig().getString("MySQL.Prefix") : "";
     private final String server;
     private String enabler;
     private boolean enabled;
     private int amount;
     private long endTime;
     private int id;
+    private boolean stored = false;
 
     public Multiplier(String server) {
         this.server = server;
-        enabler = getEnabler(server);
-        enabled = isEnabled(server);
-        amount = getAmount(server);
-        id = getID(server);
-        endTime = checkMultiplierTime(server);
+        stored = true;
+        load(core.getMultiplierManager().getActive(server));
     }
 
     public Multiplier(String server, String enabler, boolean enabled, int amount, long endTime) {
@@ -60,16 +53,13 @@ public final class Multiplier {
         checkMultiplierTime(server);
     }
 
-    private Connection getConnection() throws SQLException {
-        return core.getDatabase().getConnection();
-    }
-
     /**
      * Get the nick of the player who enabled this multiplier.
      *
      * @return The nick of the player.
      */
     public String getEnabler() {
+        checkMultiplierTime(server);
         return enabler;
     }
 
@@ -81,6 +71,7 @@ public final class Multiplier {
     public void setEnabler(String enabler) {
         this.enabler = enabler;
         id = -1;
+        stored = false;
     }
 
     /**
@@ -90,6 +81,7 @@ public final class Multiplier {
      * @return
      */
     public Boolean isEnabled() {
+        checkMultiplierTime(server);
         return enabled;
     }
 
@@ -101,6 +93,7 @@ public final class Multiplier {
     public void setEnabled(Boolean enabled) {
         this.enabled = enabled;
         id = -1;
+        stored = false;
     }
 
     /**
@@ -109,6 +102,7 @@ public final class Multiplier {
      * @return
      */
     public int getAmount() {
+        checkMultiplierTime(server);
         return amount;
     }
 
@@ -124,6 +118,7 @@ public final class Multiplier {
             this.amount = amount;
         }
         id = -1;
+        stored = false;
     }
 
     /**
@@ -134,6 +129,7 @@ public final class Multiplier {
     public void setEndTime(Long endtime) {
         endTime = endtime;
         id = -1;
+        stored = false;
     }
 
     /**
@@ -171,7 +167,7 @@ public final class Multiplier {
             return new MultiplierData(server, enabler, enabled, amount, (int) (checkTime() / 60000), id, false) {
             };
         } else {
-            return getDataByID(id);
+            return core.getMultiplierManager().getData(id);
         }
     }
 
@@ -207,17 +203,7 @@ public final class Multiplier {
      * @param server     The server to create the multiplier, if is null, we use the server specified in the config.
      */
     public void createMultiplier(UUID uuid, int multiplier, int minutes, String server) {
-        try (Connection c = getConnection()) {
-            try {
-                c.prepareStatement("INSERT INTO " + prefix + "Multipliers VALUES(NULL, '" + uuid + "', " + multiplier + ", -1, " + minutes + ", 0, " + "'" + (server != null ? server : this.server) + "'" + ", false);").executeUpdate();
-            } finally {
-                c.close();
-            }
-        } catch (SQLException ex) {
-            core.log("&cSomething was wrong when creating a multiplier for " + core.getNick(uuid));
-            core.debug("The error code is: " + ex.getErrorCode());
-            core.debug(ex.getMessage());
-        }
+        core.getMultiplierManager().create(uuid, multiplier, minutes, server != null ? server : this.server);
     }
 
     /**
@@ -252,38 +238,11 @@ public final class Multiplier {
      * not.
      */
     public boolean useMultiplier(int id, MultiplierType type) {
-        try (Connection c = getConnection()) {
-            ResultSet res = null;
-            try {
-                res = c.prepareStatement("SELECT * FROM " + prefix + "Multipliers WHERE id = " + id + ";").executeQuery();
-                if (!isEnabled(getDataByID(id).getServer())) {
-                    if (res.next()) {
-                        Long minutes = res.getLong("minutes");
-                        Long endtime = System.currentTimeMillis() + (minutes * 60000);
-                        c.prepareStatement("UPDATE " + prefix + "Multipliers SET endtime = " + endtime + ", enabled = true WHERE id = " + id + ";").executeUpdate();
-                        enabled = true;
-                        amount = getAmount(res.getString("server"));
-                        enabler = core.getNick(UUID.fromString(res.getString("uuid")));
-                        endTime = endtime;
-                        core.updateMultiplier(new Multiplier(res.getString("server")));
-                        return true;
-                    }
-                } else {
-                    res = c.prepareStatement("SELECT * FROM " + prefix + "Multipliers WHERE server = '" + server + "' ORDER BY queue DESC;").executeQuery();
-                    if (res.next()) {
-                        c.prepareStatement("UPDATE " + prefix + "Multipliers SET queue = " + (res.getInt("queue") + 1) + " WHERE id = " + id + ";").executeUpdate();
-                        return false;
-                    }
-                }
-            } finally {
-                if (res != null) {
-                    res.close();
-                }
-                c.close();
+        if (core.getMultiplierManager().use(id)) {
+            if (stored) {
+                load(core.getMultiplierManager().getActive(server));
             }
-        } catch (SQLException ex) {
-            core.log("&cSomething was wrong when using a multiplier with the id: '" + id + "'");
-            core.debug(ex);
+            return true;
         }
         return false;
     }
@@ -302,143 +261,43 @@ public final class Multiplier {
     }
 
     private Long checkMultiplierTime(String server) {
-        if (id == -1) { // this multiplier is fake
-            if ((endTime - System.currentTimeMillis()) > 0) {
-                return endTime - System.currentTimeMillis();
-            } else {
-                amount = 1;
-                enabled = false;
-                enabler = null;
-                endTime = 0L;
-                return 0L;
-            }
-        } else if (endTime > 0 && (endTime - System.currentTimeMillis()) > 0) { // this is the cached time of a real multiplier
-            return endTime - System.currentTimeMillis();
-        } else { // we don't know about any multiplier :/
-            try (Connection c = getConnection()) {
-                ResultSet res = null;
-                try {
-                    res = c.prepareStatement("SELECT * FROM " + prefix + "Multipliers WHERE server = '" + server + "' AND enabled = true;").executeQuery();
-                    if (res.next()) {
-                        endTime = res.getLong("endtime");
-                        if ((endTime - System.currentTimeMillis()) > 0) {
-                            return (endTime - System.currentTimeMillis());
-                        } else {
-                            c.prepareStatement("DELETE FROM " + prefix + "Multipliers WHERE server = '" + server + "' AND enabled = true;").executeUpdate();
-                            amount = 1;
-                            enabled = false;
-                            enabler = null;
-                            endTime = 0L;
-                            res = c.prepareStatement("SELECT * FROM " + prefix + "Multipliers WHERE server = '" + server + "' AND enabled = false AND queue > -1 ORDER BY queue ASC;").executeQuery();
-                            if (res.next()) {
-                                useMultiplier(res.getInt("id"), MultiplierType.SERVER);
-                            }
-                        }
-                    }
-                } finally {
-                    if (res != null) {
-                        res.close();
-                    }
-                    c.close();
-                }
-            } catch (SQLException ex) {
-                core.log("&cSomething was wrong when we're getting the multiplier time for " + server);
-                core.debug("The error code is: " + ex.getErrorCode());
-                core.debug(ex.getMessage());
-            }
-        }
-        return 0L;
-    }
-
-    private Set<Integer> getMultipliersFor(UUID uuid, String server, boolean all) {
-        Set<Integer> multipliers = new HashSet<>();
-        try (Connection c = getConnection()) {
-            ResultSet res = null;
-            try {
-                String query = "SELECT * FROM " + prefix + "Multipliers WHERE uuid = '" + uuid + "' AND enabled = false AND queue = -1";
-                if (server != null && all == false) {
-                    query += " AND server = '" + server + "'";
-                }
-                res = c.prepareStatement(query + ";").executeQuery();
-                while (res.next()) {
-                    multipliers.add(res.getInt("id"));
-                }
-            } finally {
-                if (res != null) {
-                    res.close();
-                }
-                c.close();
-            }
-        } catch (SQLException ex) {
-            core.log("&cSomething was wrong when getting the multipliers for " + core.getNick(uuid));
-            core.debug("The error code is: " + ex.getErrorCode());
-            core.debug(ex.getMessage());
+        long remaining = endTime - System.currentTimeMillis();
+        if (remaining > 0) {
+            return remaining;
         }
-        return multipliers;
-    }
-
-    private String getEnabler(String server) {
-        try (Connection c = getConnection(); ResultSet res = c.prepareStatement("SELECT * FROM " + prefix + "Multipliers WHERE enabled = true AND server = '" + server + "';").executeQuery()) {
-            if (res.next()) {
-                core.log(core.getNick(UUID.fromString(res.getString("uuid"))));
-                return core.getNick(UUID.fromString(res.getString("uuid")));
-            }
-        } catch (SQLException ex) {
-            core.log("&cSomething was wrong where getting the enabler for " + server);
-            core.debug("The error code is: " + ex.getErrorCode());
-            core.debug(ex.getMessage());
-        }
-        return null;
-    }
-
-    private Boolean isEnabled(String server) {
-        try (Connection c = getConnection(); ResultSet res = c.prepareStatement("SELECT * FROM " + prefix + "Multipliers WHERE enabled = true AND server = '" + server + "';").executeQuery()) {
-            if (res.next()) {
-                return true;
-            }
-        } catch (SQLException ex) {
-            core.log("&cSomething was wrong where getting if the server " + server + " has a multiplier enabled.");
-            core.debug("The error code is: " + ex.getErrorCode());
-            core.debug(ex);
+        if (stored) { // the manager knows if this multiplier was replaced by the next one in the queue
+            load(core.getMultiplierManager().getActive(server));
+            return Math.max(endTime - System.currentTimeMillis(), 0L);
         }
-        return false;
+        amount = 1;
+        enabled = false;
+        enabler = null;
+        endTime = 0L;
+        return 0L;
     }
 
-    private int getAmount(String server) {
-        try (Connection c = getConnection(); ResultSet res = c.prepareStatement("SELECT * FROM " + prefix + "Multipliers WHERE enabled = true AND server = '" + server + "';").executeQuery()) {
-            if (res.next()) {
-                return res.getInt("multiplier");
-            }
-        } catch (SQLException ex) {
-            core.log("&cSomething was wrong where getting the multiplier amount for " + server);
-            core.debug("The error code is: " + ex.getErrorCode());
-            core.debug(ex.getMessage());
+    private void load(MultiplierManager.Entry entry) {
+        if (entry != null) {
+            enabler = core.getMultiplierManager().getName(entry.uuid);
+            enabled = true;
+            amount = entry.amount;
+            endTime = entry.endTime;
+            id = entry.id;
+        } else {
+            enabler = null;
+            enabled = false;
+            amount = 1;
+            endTime = 0L;
+            id = -1;
         }
-        return 1;
     }
 
-    private int getID(String server) {
-        try (Connection c = getConnection(); ResultSet res = c.prepareStatement("SELECT * FROM " + prefix + "Multipliers WHERE server = '" + server + "' AND enabled = true;").executeQuery()) {
-            if (res.next()) {
-                return res.getInt("id");
-            }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
-        return -1;
+    private Set<Integer> getMultipliersFor(UUID uuid, String server, boolean all) {
+        return core.getMultiplierManager().getMultipliersFor(uuid, server, all);
     }
 
     public MultiplierData getDataByID(int id) {
-        try (Connection c = getConnection(); ResultSet res = c.prepareStatement("SELECT * FROM " + prefix + "Multipliers WHERE id = " + id + ";").executeQuery()) {
-            if (res.next()) {
-                return new Builder(res.getString("server"), core.getNick(UUID.fromString(res.getString("uuid"))), id, res.getInt("multiplier"), res.getBoolean("enabled"), res.getInt("minutes"), res.getBoolean("queue")).create();
-            }
-        } catch (SQLException ex) {
-            core.log("&cSomething was wrong generating the data for the multiplier with the id: '" + id + "'");
-            core.debug("The error code is: " + ex.getErrorCode());
-            core.debug(ex.getMessage());
-        }
-        return null;
+        return core.getMultiplierManager().getData(id);
     }
 
     private String formatTime(long millis) {
@@ -459,30 +318,4 @@ public final class Multiplier {
         b.append(seconds == 0 ? "00" : seconds < 10 ? "0" + seconds : String.valueOf(seconds));
         return b.toString();
     }
-
-    private static class Builder {
-
-        private final String server;
-        private final String enabler;
-        private final int id;
-        private final boolean queue;
-        private int amount = 1;
-        private boolean enabled = false;
-        private int minutes = 0;
-
-        public Builder(String server, String enabler, int id, int amount, boolean enabled, int minutes, boolean queue) {
-            this.server = server;
-            this.enabler = enabler;
-            this.id = id;
-            this.amount = amount;
-            this.enabled = enabled;
-            this.minutes = minutes;
-            this.queue = queue;
-        }
-
-        public MultiplierData create() {
-            return new MultiplierData(server, enabler, enabled, amount, minutes, id, queue) {
-            };
-        }
-    }
 }
@@ -0,0 +1,362 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.multiplier;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+import net.nifheim.beelzebu.coins.common.database.Database.SQLQuery;
+import net.nifheim.beelzebu.coins.common.database.Database.Utils;
+
+/**
+ * Keep all the multipliers in memory so checking the multiplier of a server doesn't need the database.
+ * <p>
+ * The changes are written to the database in order by a single thread, the multipliers are loaded again every minute
+ * to know about the multipliers created or used in other servers, and the expiration of the multiplier of this server
+ * is scheduled in the same thread at his end time, so the next one in the queue is enabled right when it ends.
+ * </p>
+ *
+ * @author Beelzebu
+ */
+public final class MultiplierManager {
+
+    private final CoinsCore core;
+    private final String localServer;
+    private final Map<Integer, Entry> multipliers = new HashMap<>();
+    private final Map<String, Entry> active = new HashMap<>();
+    private final Map<UUID, String> names = new HashMap<>();
+    private final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, rn -> {
+        Thread thread = new Thread(rn, "Coins Multiplier Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> expiration;
+    private int modCount = 0;
+    private int pendingWrites = 0;
+
+    public MultiplierManager(CoinsCore core) {
+        this.core = core;
+        localServer = core.getConfig().getSettings().getMultipliersServer();
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        writer.setRemoveOnCancelPolicy(true);
+    }
+
+    public void start() {
+        core.getMethods().runAsync(() -> writer.execute(this::reload), 1200);
+    }
+
+    /**
+     * Wait until all the changes are written to the database.
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Create a multiplier for a player, it is added to the memory when the database returns his id.
+     *
+     * @param uuid    The player to create the multiplier.
+     * @param amount  The multiplier.
+     * @param minutes The time for the multiplier.
+     * @param server  The server for the multiplier.
+     */
+    public void create(UUID uuid, int amount, int minutes, String server) {
+        write(() -> {
+            try (Connection c = core.getDatabase().getConnection()) {
+                int id = (int) Utils.executeInsert(c, SQLQuery.CREATE_MULTIPLIER, uuid, amount, minutes, server, false);
+                if (id > 0) {
+                    synchronized (this) {
+                        multipliers.put(id, new Entry(id, uuid, amount, minutes, server, -1, 0, false));
+                        modCount++;
+                    }
+                }
+            } catch (SQLException ex) {
+                core.log("&cSomething was wrong when creating a multiplier for " + core.getNick(uuid));
+                core.debug(ex);
+            }
+        });
+    }
+
+    /**
+     * Enable a multiplier, if the server of the multiplier already has a multiplier enabled it is added to the queue.
+     *
+     * @param id The id of the multiplier.
+     * @return true if the multiplier was enabled, false if it was added to the queue or can't be used.
+     */
+    public boolean use(int id) {
+        Entry enabled;
+        synchronized (this) {
+            Entry entry = multipliers.get(id);
+            if (entry == null || entry.enabled || entry.queue > -1) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            Entry current = active.get(entry.server);
+            if (current != null && current.endTime > now) {
+                int queue = -1;
+                for (Entry other : multipliers.values()) {
+                    if (other.server.equals(entry.server)) {
+                        queue = Math.max(queue, other.queue);
+                    }
+                }
+                put(entry.with(queue + 1, 0, false));
+                persist(SQLQuery.QUEUE_MULTIPLIER, queue + 1, id);
+                return false;
+            }
+            if (current != null) {
+                expire(current);
+            }
+            enabled = enable(entry, now);
+        }
+        core.updateMultiplier(new Multiplier(enabled.server));
+        core.getMethods().callMultiplierEnableEvent(enabled.uuid, getData(enabled.id));
+        return true;
+    }
+
+    /**
+     * Get the multiplier enabled in a server.
+     *
+     * @param server The server to check.
+     * @return The enabled multiplier or null if the server doesn't have a multiplier enabled.
+     */
+    synchronized Entry getActive(String server) {
+        Entry entry = active.get(server);
+        return entry != null && entry.endTime > System.currentTimeMillis() ? entry : null;
+    }
+
+    /**
+     * Get the data of a multiplier.
+     *
+     * @param id The id of the multiplier.
+     * @return The data of the multiplier or null if it doesn't exist.
+     */
+    public MultiplierData getData(int id) {
+        Entry entry;
+        synchronized (this) {
+            entry = multipliers.get(id);
+        }
+        if (entry == null) {
+            return null;
+        }
+        return new MultiplierData(entry.server, getName(entry.uuid), entry.enabled, entry.amount, entry.minutes, entry.id, entry.queue > -1) {
+        };
+    }
+
+    /**
+     * Get the ids of the multipliers of a player that weren't used.
+     *
+     * @param uuid   The player to get the multipliers.
+     * @param server The server of the multipliers, if is null all the multipliers of the player are returned.
+     * @param all    If is true the multipliers of all the servers are returned.
+     * @return The ids of the multipliers.
+     */
+    public synchronized Set<Integer> getMultipliersFor(UUID uuid, String server, boolean all) {
+        Set<Integer> ids = new HashSet<>();
+        multipliers.values().stream().filter(entry -> entry.uuid.equals(uuid) && !entry.enabled && entry.queue == -1 && (server == null || all || entry.server.equals(server))).forEach(entry -> ids.add(entry.id));
+        return ids;
+    }
+
+    String getName(UUID uuid) {
+        String name;
+        synchronized (this) {
+            name = names.get(uuid);
+        }
+        if (name == null) {
+            name = core.getNick(uuid);
+            if (name != null) {
+                synchronized (this) {
+                    names.put(uuid, name);
+                }
+            }
+        }
+        return name;
+    }
+
+    private void expireLocal() {
+        Entry next = null;
+        synchronized (this) {
+            Entry current = active.get(localServer);
+            long now = System.currentTimeMillis();
+            if (current == null) {
+                return;
+            }
+            if (current.endTime > now) { // the clock changed since it was scheduled
+                scheduleExpiration(current);
+                return;
+            }
+            expire(current);
+            for (Entry entry : multipliers.values()) {
+                if (entry.server.equals(localServer) && !entry.enabled && entry.queue > -1 && (next == null || entry.queue < next.queue)) {
+                    next = entry;
+                }
+            }
+            if (next != null) {
+                next = enable(next, now);
+            }
+        }
+        core.updateMultiplier(new Multiplier(localServer));
+        if (next != null) {
+            core.getMethods().callMultiplierEnableEvent(next.uuid, getData(next.id));
+        }
+    }
+
+    /**
+     * Schedule the expiration of the multiplier of this server, replacing the previous one.
+     */
+    private void scheduleExpiration(Entry entry) {
+        if (expiration != null) {
+            expiration.cancel(false);
+            expiration = null;
+        }
+        if (entry != null && !core.isBungee() && !writer.isShutdown()) {
+            expiration = writer.schedule(this::expireLocal, Math.max(entry.endTime - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void reload() {
+        int mod;
+        synchronized (this) {
+            mod = modCount;
+        }
+        Map<Integer, Entry> loaded = new HashMap<>();
+        try (Connection c = core.getDatabase().getConnection(); ResultSet res = Utils.executeQuery(c, SQLQuery.SELECT_MULTIPLIERS)) {
+            while (res.next()) {
+                try {
+                    Entry entry = new Entry(res.getInt("id"), UUID.fromString(res.getString("uuid")), res.getInt("multiplier"), res.getInt("minutes"), Objects.requireNonNull(res.getString("server")), res.getInt("queue"), res.getLong("endtime"), res.getBoolean("enabled"));
+                    loaded.put(entry.id, entry);
+                } catch (IllegalArgumentException | NullPointerException ex) {
+                    core.debug("Invalid multiplier with the id " + res.getInt("id") + " in the database.");
+                }
+            }
+        } catch (SQLException ex) {
+            core.log("&cSomething was wrong loading the multipliers from the database.");
+            core.debug(ex);
+            return;
+        }
+        synchronized (this) {
+            if (mod != modCount || pendingWrites > 0) { // something changed while loading, the next reload will get it
+                return;
+            }
+            multipliers.clear();
+            active.clear();
+            loaded.values().forEach(this::put);
+            scheduleExpiration(active.get(localServer));
+        }
+    }
+
+    private Entry enable(Entry entry, long now) {
+        Entry enabled = entry.with(entry.queue, now + entry.minutes * 60000L, true);
+        put(enabled);
+        if (enabled.server.equals(localServer)) {
+            scheduleExpiration(enabled);
+        }
+        persist(SQLQuery.ENABLE_MULTIPLIER, enabled.endTime, true, enabled.id);
+        return enabled;
+    }
+
+    private void expire(Entry entry) {
+        multipliers.remove(entry.id);
+        active.remove(entry.server, entry);
+        if (entry.server.equals(localServer)) {
+            scheduleExpiration(null);
+        }
+        modCount++;
+        persist(SQLQuery.DELETE_MULTIPLIER, entry.id);
+    }
+
+    private void put(Entry entry) {
+        multipliers.put(entry.id, entry);
+        if (entry.enabled) {
+            active.merge(entry.server, entry, (old, updated) -> old.id != updated.id && old.endTime > updated.endTime ? old : updated);
+        }
+        modCount++;
+    }
+
+    private void persist(SQLQuery query, Object... parameters) {
+        pendingWrites++;
+        write(() -> {
+            try (Connection c = core.getDatabase().getConnection()) {
+                Utils.executeUpdate(c, query, parameters);
+            } catch (SQLException ex) {
+                core.log("&cSomething was wrong saving a multiplier in the database.");
+                core.debug(ex);
+            } finally {
+                synchronized (this) {
+                    pendingWrites--;
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a write in the writer thread, or in this thread if the writer was shut down, so the changes made while the
+     * plugin is disabled are still saved and the pending writes are always counted down.
+     */
+    private void write(Runnable task) {
+        if (!writer.isShutdown()) {
+            try {
+                writer.execute(task);
+                return;
+            } catch (RejectedExecutionException ignore) { // the writer was shut down after the check
+            }
+        }
+        task.run();
+    }
+
+    static final class Entry {
+
+        final int id;
+        final UUID uuid;
+        final int amount;
+        final int minutes;
+        final String server;
+        final int queue;
+        final long endTime;
+        final boolean enabled;
+
+        private Entry(int id, UUID uuid, int amount, int minutes, String server, int queue, long endTime, boolean enabled) {
+            this.id = id;
+            this.uuid = uuid;
+            this.amount = amount;
+            this.minutes = minutes;
+            this.server = server;
+            this.queue = queue;
+            this.endTime = endTime;
+            this.enabled = enabled;
+        }
+
+        private Entry with(int queue, long endTime, boolean enabled) {
+            return new Entry(id, uuid, amount, minutes, server, queue, endTime, enabled);
+        }
+    }
+}
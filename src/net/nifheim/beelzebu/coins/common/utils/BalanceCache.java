@@ -0,0 +1,282 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import net.nifheim.beelzebu.coins.common.database.VersionedBalance;
+
+/**
+ * Cache for player balances keyed by the two longs of the uuid and storing primitive doubles, so lookups don't box
+ * anything. The cache is split in stripes with their own lock and entries expire after the specified time since they
+ * were written, reads don't extend the expiry so a server that only reads a balance asks the proxy for its updates
+ * again when it reads it from the database.
+ * <p>
+ * Every balance has the version of the row in the database, a balance older than the cached one is rejected so updates
+ * received out of order can't overwrite a newer balance.
+ * </p>
+ *
+ * @author Beelzebu
+ */
+public final class BalanceCache {
+
+    /**
+     * Version used for balances that don't come from the database, these balances don't replace a balance with a known
+     * version.
+     */
+    public static final long UNKNOWN_VERSION = -1;
+    private static final int STRIPES = 16;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long expireNanos;
+
+    public BalanceCache(long duration, TimeUnit unit) {
+        expireNanos = unit.toNanos(duration);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Get the balance of a player.
+     *
+     * @param uuid The player to get the balance.
+     * @return The balance of the player or -1 if the player isn't cached.
+     */
+    public double get(UUID uuid) {
+        if (uuid == null) {
+            return -1;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        return stripes[hash >>> 28].get(msb, lsb, hash, System.nanoTime());
+    }
+
+    public void put(UUID uuid, double balance) {
+        put(uuid, balance, UNKNOWN_VERSION);
+    }
+
+    /**
+     * Put the balance of a player if it isn't older than the cached balance, a balance without version only replaces a
+     * cached balance that doesn't have a version either.
+     *
+     * @param uuid    The player.
+     * @param balance The balance of the player.
+     * @param version The version of the balance, or {@link #UNKNOWN_VERSION} if it isn't known.
+     * @return true if the balance was put, false if the cached balance is newer.
+     */
+    public boolean put(UUID uuid, double balance, long version) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        return stripes[hash >>> 28].put(msb, lsb, hash, balance, version, System.nanoTime());
+    }
+
+    /**
+     * Add coins to the cached balance of a player keeping the cached version.
+     *
+     * @param uuid  The player.
+     * @param delta The coins to add.
+     * @return The new balance and the version of the cached balance, or {@link VersionedBalance#MISSING} if the
+     * player isn't cached.
+     */
+    public VersionedBalance add(UUID uuid, double delta) {
+        if (uuid == null) {
+            return VersionedBalance.MISSING;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        return stripes[hash >>> 28].add(msb, lsb, hash, delta, System.nanoTime());
+    }
+
+    public void remove(UUID uuid) {
+        if (uuid == null) {
+            return;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        stripes[hash >>> 28].remove(msb, lsb, hash);
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ (lsb * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Open addressing table with linear probing, the high bits of the hash select the stripe and the low bits the
+     * slot, expired entries are dropped when they are read or when the table is rehashed.
+     */
+    private final class Stripe {
+
+        private long[] msbs;
+        private long[] lsbs;
+        private double[] balances;
+        private long[] versions;
+        private long[] written;
+        private boolean[] used;
+        private int size;
+
+        private Stripe() {
+            allocate(16);
+        }
+
+        private synchronized double get(long msb, long lsb, int hash, long now) {
+            int i = indexOf(msb, lsb, hash);
+            if (i < 0) {
+                return -1;
+            }
+            if (now - written[i] > expireNanos) {
+                delete(i);
+                return -1;
+            }
+            return balances[i];
+        }
+
+        private synchronized boolean put(long msb, long lsb, int hash, double balance, long version, long now) {
+            int i = indexOf(msb, lsb, hash);
+            if (i >= 0) {
+                if (!VersionedBalance.replaces(version, versions[i]) && now - written[i] <= expireNanos) {
+                    return false;
+                }
+                versions[i] = version;
+                balances[i] = balance;
+                written[i] = now;
+                return true;
+            }
+            if ((size + 1) * 4 > used.length * 3) {
+                rehash(now);
+            }
+            insert(msb, lsb, hash, balance, version, now);
+            return true;
+        }
+
+        private synchronized VersionedBalance add(long msb, long lsb, int hash, double delta, long now) {
+            int i = indexOf(msb, lsb, hash);
+            if (i < 0) {
+                return VersionedBalance.MISSING;
+            }
+            if (now - written[i] > expireNanos) {
+                delete(i);
+                return VersionedBalance.MISSING;
+            }
+            balances[i] += delta;
+            written[i] = now;
+            return new VersionedBalance(balances[i], versions[i]);
+        }
+
+        private synchronized void remove(long msb, long lsb, int hash) {
+            int i = indexOf(msb, lsb, hash);
+            if (i >= 0) {
+                delete(i);
+            }
+        }
+
+        private int indexOf(long msb, long lsb, int hash) {
+            int mask = used.length - 1;
+            for (int i = hash & mask; used[i]; i = (i + 1) & mask) {
+                if (msbs[i] == msb && lsbs[i] == lsb) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(long msb, long lsb, int hash, double balance, long version, long now) {
+            int mask = used.length - 1;
+            int i = hash & mask;
+            while (used[i]) {
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            msbs[i] = msb;
+            lsbs[i] = lsb;
+            balances[i] = balance;
+            versions[i] = version;
+            written[i] = now;
+            size++;
+        }
+
+        /**
+         * Remove the entry in the specified slot and shift back the entries after it, so probing never stops at the
+         * empty slot left by the removed entry.
+         */
+        private void delete(int slot) {
+            int mask = used.length - 1;
+            int i = slot;
+            used[i] = false;
+            size--;
+            for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+                int home = hash(msbs[j], lsbs[j]) & mask;
+                if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) {
+                    continue;
+                }
+                used[i] = true;
+                msbs[i] = msbs[j];
+                lsbs[i] = lsbs[j];
+                balances[i] = balances[j];
+                versions[i] = versions[j];
+                written[i] = written[j];
+                used[j] = false;
+                i = j;
+            }
+        }
+
+        /**
+         * Drop all the expired entries and resize the table so it is at most half full.
+         */
+        private void rehash(long now) {
+            long[] oldMsbs = msbs;
+            long[] oldLsbs = lsbs;
+            double[] oldBalances = balances;
+            long[] oldVersions = versions;
+            long[] oldWritten = written;
+            boolean[] oldUsed = used;
+            int live = 0;
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (oldUsed[i] && now - oldWritten[i] <= expireNanos) {
+                    live++;
+                }
+            }
+            int capacity = 16;
+            while (capacity < (live + 1) * 2) {
+                capacity <<= 1;
+            }
+            allocate(capacity);
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (oldUsed[i] && now - oldWritten[i] <= expireNanos) {
+                    insert(oldMsbs[i], oldLsbs[i], hash(oldMsbs[i], oldLsbs[i]), oldBalances[i], oldVersions[i], oldWritten[i]);
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            msbs = new long[capacity];
+            lsbs = new long[capacity];
+            balances = new double[capacity];
+            versions = new long[capacity];
+            written = new long[capacity];
+            used = new boolean[capacity];
+            size = 0;
+        }
+    }
+}
@@ -16,15 +16,11 @@
  */
 package net.nifheim.beelzebu.coins.common.utils;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import lombok.Getter;
-import net.nifheim.beelzebu.coins.CoinsAPI;
 import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
 
 /**
@@ -33,26 +29,57 @@ import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
 public class CacheManager {
 
     @Getter
-    private static final Cache<UUID, Double> playersData = CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).build();
+    private static final BalanceCache playersData = new BalanceCache(10, TimeUnit.MINUTES);
     @Getter
     private static final Map<String, Multiplier> multipliersData = new HashMap<>();
+    @Getter
+    private static final Leaderboard leaderboard = new Leaderboard(100);
+    @Getter
+    private static final NegativeCache missingPlayers = new NegativeCache(1000, 1, TimeUnit.MINUTES);
+    @Getter
+    private static final PermissionMultiplierCache permissionMultipliers = new PermissionMultiplierCache(30, TimeUnit.SECONDS);
 
     public static double getCoins(UUID uuid) {
-        return Optional.ofNullable(playersData.getIfPresent(uuid)).orElse(-1D);
+        return playersData.get(uuid);
+    }
+
+    public static void updateCoins(UUID uuid, double coins) {
+        updateCoins(uuid, coins, BalanceCache.UNKNOWN_VERSION);
     }
 
-    public static void updateCoins(UUID uuid, Double coins) {
-        if (coins > -1) {
-            playersData.put(uuid, coins);
+    /**
+     * Update the coins of a player in the cache if the version isn't older than the cached version.
+     *
+     * @param uuid    The player.
+     * @param coins   The coins of the player.
+     * @param version The version of the balance in the database.
+     * @return true if the cache was updated.
+     */
+    public static boolean updateCoins(UUID uuid, double coins, long version) {
+        if (uuid != null && coins > -1 && playersData.put(uuid, coins, version)) {
+            missingPlayers.remove(uuid);
+            if (leaderboard.isLoaded()) {
+                leaderboard.update(uuid, coins);
+            }
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Remove a player from the missing players, must be called when the player is created in the database.
+     *
+     * @param uuid The uuid of the player.
+     * @param nick The nick of the player.
+     */
+    public static void playerCreated(UUID uuid, String nick) {
+        missingPlayers.remove(uuid);
+        missingPlayers.remove(nick);
     }
 
     public static void removePlayer(UUID uuid) {
-        Double coins = playersData.getIfPresent(uuid);
-        if (coins != null) { // force update in database when removing from cache.
-            CoinsAPI.setCoins(uuid, coins);
-        }
-        playersData.invalidate(uuid);
+        playersData.remove(uuid);
+        permissionMultipliers.remove(uuid);
     }
 
     public static void addMultiplier(String server, Multiplier multiplier) {
@@ -30,6 +30,7 @@ import org.bukkit.Bukkit;
 public abstract class CoinsConfig implements IConfiguration {
 
     private final Set<Executor> executors = new HashSet<>();
+    private volatile Settings settings;
 
     public void loadExecutors() {
         getConfigurationSection("Command executor").forEach(id -> executors.add(new Executor(id, getString("Command executor." + id + ".Displayname", id), getDouble("Command executor." + id + ".Cost", 0), getStringList("Command executor." + id + ".Command"))));
@@ -39,9 +40,30 @@ public abstract class CoinsConfig implements IConfiguration {
         return executors;
     }
 
+    /**
+     * Get the settings read in hot paths, the settings are replaced with a new copy when the config is reloaded.
+     *
+     * @return The current settings.
+     */
+    public Settings getSettings() {
+        Settings current = settings;
+        if (current == null) {
+            settings = current = new Settings(this);
+        }
+        return current;
+    }
+
+    /**
+     * Discard the current settings so they are read again the next time they are used, must be called by the
+     * implementations after the config is reloaded.
+     */
+    protected void invalidateSettings() {
+        settings = null;
+    }
+
     // #EasterEgg
     public boolean vaultMultipliers() {
-        return getBoolean("Vault.Use Multipliers", false);
+        return getSettings().isVaultMultipliers();
     }
 
     public boolean useBungee() {
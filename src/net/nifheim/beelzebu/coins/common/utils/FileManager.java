@@ -79,7 +79,7 @@ public class FileManager {
         try {
             List<String> lines = FileUtils.readLines(configFile, Charsets.UTF_8);
             int index;
-            if (core.getConfig().getInt("version") == 13) {
+            if (core.getConfig().getInt("version") == 17) {
                 core.log("The config file is up to date.");
             } else {
                 switch (core.getConfig().getInt("version")) {
@@ -130,6 +130,65 @@ public class FileManager {
                         lines.set(index, "version: 13");
                         core.log("Configuration file updated to v13");
                         break;
+                    case 13:
+                        index = lines.indexOf("  Create Join: false") + 1;
+                        lines.addAll(index, Arrays.asList(
+                                "  # If you give a lot of coins in a short time (for example kill rewards in minigames) you can enable this to add the",
+                                "  # coins to the cache and write them to the database in batches, the coins are saved in a local journal until they",
+                                "  # are written, so they aren't lost if the server crashes.",
+                                "  Write Behind:",
+                                "    Enabled: false",
+                                "    Interval: 5 # The time in seconds between every write to the database.",
+                                "    Max Pending: 500 # If there are more players than this waiting to be written, they are written immediately."
+                        ));
+                        index = lines.indexOf("version: 13");
+                        lines.set(index, "version: 14");
+                        core.log("Configuration file updated to v14");
+                        break;
+                    case 14:
+                        index = lines.indexOf("    Max Pending: 500 # If there are more players than this waiting to be written, they are written immediately.") + 1;
+                        lines.addAll(index, Arrays.asList(
+                                "  # The top of players is kept in memory and updated with every change of coins, here you can set the time in minutes",
+                                "  # to load it again from the database, set it to 0 to get the top from the database every time.",
+                                "  Leaderboard:",
+                                "    Refresh: 30"
+                        ));
+                        index = lines.indexOf("version: 14");
+                        lines.set(index, "version: 15");
+                        core.log("Configuration file updated to v15");
+                        break;
+                    case 15:
+                        index = lines.indexOf("  Connection Interval: 5") + 1;
+                        lines.addAll(index, Arrays.asList(
+                                "",
+                                "# Here you can use a Redis server to send the changes of coins and multipliers to your other servers, this doesn't",
+                                "# need BungeeCord and works even if there are no players online in the server.",
+                                "Redis:",
+                                "  Use: false",
+                                "  Host: 'localhost'",
+                                "  Port: 6379",
+                                "  Password: ''",
+                                "  Channel: 'coins'"
+                        ));
+                        index = lines.indexOf("version: 15");
+                        lines.set(index, "version: 16");
+                        core.log("Configuration file updated to v16");
+                        break;
+                    case 16:
+                        index = lines.indexOf(lines.stream().filter(line -> line.startsWith("Debug:")).findFirst().orElse(lines.get(lines.size() - 1))) + 1;
+                        lines.addAll(index, Arrays.asList(
+                                "# The categories of debug messages to show when the debug mode is enabled, the available categories are:",
+                                "# database, messaging, multipliers and cache.",
+                                "Debug Categories:",
+                                "- 'database'",
+                                "- 'messaging'",
+                                "- 'multipliers'",
+                                "- 'cache'"
+                        ));
+                        index = lines.indexOf("version: 16");
+                        lines.set(index, "version: 17");
+                        core.log("Configuration file updated to v17");
+                        break;
                     default:
                         core.log("Seems that you hava a too old version of the config or you canged this to another number >:(");
                         core.log("We can't update it, if is a old version you should try to update it slow and not jump from a version to another, keep in mind that we keep track of the last 3 versions of the config to update.");
@@ -354,20 +413,7 @@ public class FileManager {
         if (!logsFolder.exists()) {
             logsFolder.mkdirs();
         }
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-        File latestLog = new File(logsFolder, "latest.log");
-        if (latestLog.exists()) {
-            try {
-                int filen = 1;
-                while (new File(logsFolder, sdf.format(latestLog.lastModified()) + "-" + filen + ".log.gz").exists()) {
-                    filen++;
-                }
-                gzipFile(Files.newInputStream(latestLog.toPath()), logsFolder + "/" + sdf.format(latestLog.lastModified()) + "-" + filen + ".log.gz");
-                latestLog.delete();
-            } catch (IOException ex) {
-                Logger.getLogger(FileManager.class.getName()).log(Level.WARNING, "An unexpected error has ocurred while trying to compress the latest log file. {0}", ex.getMessage());
-            }
-        }
+        core.getLogWriter().rotate(); // the latest log is archived in the writer thread
         File[] fList = logsFolder.listFiles();
         // Auto purge for old logs
         for (File file : fList) {
@@ -377,6 +423,26 @@ public class FileManager {
         }
     }
 
+    /**
+     * Compress a log file to the logs folder and delete it, this is called by the log writer so the file isn't being
+     * written while it is compressed.
+     *
+     * @param latestLog The log file to archive.
+     */
+    void archiveLog(File latestLog) {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+        try {
+            int filen = 1;
+            while (new File(logsFolder, sdf.format(latestLog.lastModified()) + "-" + filen + ".log.gz").exists()) {
+                filen++;
+            }
+            gzipFile(Files.newInputStream(latestLog.toPath()), logsFolder + "/" + sdf.format(latestLog.lastModified()) + "-" + filen + ".log.gz");
+            latestLog.delete();
+        } catch (IOException ex) {
+            Logger.getLogger(FileManager.class.getName()).log(Level.WARNING, "An unexpected error has ocurred while trying to compress the latest log file. {0}", ex.getMessage());
+        }
+    }
+
     private void gzipFile(InputStream in, String to) throws IOException {
         GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(to));
         byte[] buffer = new byte[4096];
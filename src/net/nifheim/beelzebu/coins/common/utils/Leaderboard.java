@@ -0,0 +1,332 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+
+/**
+ * In memory leaderboard of the players with the most coins, it is an order statistic treap sorted by balance so
+ * updates, top lists and ranks don't need to query the database.
+ * <p>
+ * Only the top players are kept, the leaderboard always contains the real top of as many players as it has. A player
+ * that drops below the last player is removed because someone outside the leaderboard could have more coins, and a
+ * player outside the leaderboard is added when it gets more coins than the last player.
+ * </p>
+ *
+ * @author Beelzebu
+ */
+public final class Leaderboard {
+
+    private final int capacity;
+    private final Random random = new Random();
+    private Map<UUID, Node> nodes = new HashMap<>();
+    private Map<UUID, String> names = new HashMap<>();
+    private Node root;
+    private boolean loaded = false;
+    private boolean complete = false; // true if all the players in the database are in the leaderboard
+
+    /**
+     * @param capacity The max amount of players to keep in the leaderboard.
+     */
+    public Leaderboard(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Replace the content of the leaderboard with the data from the database, the new leaderboard is built before
+     * taking the lock so updates and top lists aren't blocked while it is built.
+     *
+     * @param players The players in the format returned by
+     *                {@link net.nifheim.beelzebu.coins.common.database.Database#getTopPlayersData(int)}, must be
+     *                limited to {@link #getCapacity()} players.
+     */
+    public void load(Map<String, Double> players) {
+        if (players == null) {
+            return;
+        }
+        Map<UUID, Node> newNodes = new HashMap<>();
+        Map<UUID, String> newNames = new HashMap<>();
+        Node newRoot = null;
+        for (Map.Entry<String, Double> entry : players.entrySet()) {
+            String[] data = entry.getKey().split(",");
+            try {
+                UUID uuid = UUID.fromString(data[1]);
+                double cached = CacheManager.getCoins(uuid); // the cache may have changes that aren't in the database yet
+                Node node = new Node(uuid, cached > -1 ? cached : entry.getValue(), random.nextInt());
+                newRoot = insert(newRoot, node);
+                newNodes.put(uuid, node);
+                newNames.put(uuid, data[0]);
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ignore) {
+            }
+        }
+        synchronized (this) {
+            nodes = newNodes;
+            names = newNames;
+            root = newRoot;
+            complete = players.size() < capacity;
+            loaded = true;
+        }
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Check if the leaderboard has enough players to get a top list.
+     *
+     * @param top The length of the top list.
+     * @return true if the top list can be generated from the leaderboard without querying the database.
+     */
+    public synchronized boolean canGetTop(int top) {
+        return loaded && (complete || top <= nodes.size());
+    }
+
+    /**
+     * Update the balance of a player, the player is added if it has more coins than the last player or removed if it
+     * has less coins than the last player.
+     *
+     * @param uuid    The player to update.
+     * @param balance The new balance of the player.
+     */
+    public synchronized void update(UUID uuid, double balance) {
+        Node node = nodes.get(uuid);
+        if (node != null && node.balance == balance) {
+            return;
+        }
+        Node last = last(root);
+        if (!complete && (last == null || balance < last.balance)) {
+            if (node != null) {
+                remove(uuid);
+            }
+            return;
+        }
+        if (node != null) {
+            root = remove(root, node);
+        } else if (!complete && last != null && balance == last.balance) {
+            return;
+        }
+        node = new Node(uuid, balance, random.nextInt());
+        root = insert(root, node);
+        nodes.put(uuid, node);
+        while (nodes.size() > capacity) {
+            last = last(root);
+            remove(last.uuid);
+            complete = false;
+        }
+    }
+
+    public synchronized void remove(UUID uuid) {
+        Node node = nodes.remove(uuid);
+        if (node != null) {
+            root = remove(root, node);
+            names.remove(uuid);
+        }
+    }
+
+    /**
+     * Get the position of a player in the leaderboard.
+     *
+     * @param uuid The player to check.
+     * @return The position of the player starting from 1, or -1 if the player isn't in the leaderboard.
+     */
+    public synchronized int getRank(UUID uuid) {
+        Node node = nodes.get(uuid);
+        if (node == null) {
+            return -1;
+        }
+        int rank = 1;
+        Node current = root;
+        while (current != null) {
+            int cmp = compare(node, current);
+            if (cmp < 0) {
+                current = current.left;
+            } else {
+                rank += size(current.left);
+                if (cmp == 0) {
+                    break;
+                }
+                rank++;
+                current = current.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Get the players with the most coins.
+     *
+     * @param top The max amount of players to get.
+     * @return The name and balance of the players, ordered from the highest balance.
+     */
+    public Map<String, Double> getTop(int top) {
+        List<Node> topNodes = new ArrayList<>(Math.max(0, Math.min(top, capacity)));
+        synchronized (this) {
+            Deque<Node> stack = new ArrayDeque<>();
+            Node current = root;
+            while ((current != null || !stack.isEmpty()) && topNodes.size() < top) {
+                while (current != null) {
+                    stack.push(current);
+                    current = current.left;
+                }
+                current = stack.pop();
+                topNodes.add(current);
+                current = current.right;
+            }
+        }
+        Map<String, Double> topPlayers = new LinkedHashMap<>();
+        topNodes.forEach(node -> topPlayers.put(getName(node.uuid), node.balance));
+        return topPlayers;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    private String getName(UUID uuid) {
+        String name;
+        synchronized (this) {
+            name = names.get(uuid);
+        }
+        if (name == null) {
+            name = CoinsCore.getInstance().getNick(uuid);
+            if (name != null) {
+                synchronized (this) {
+                    if (nodes.containsKey(uuid)) { // only the names of the players in the leaderboard are kept
+                        names.put(uuid, name);
+                    }
+                }
+            }
+        }
+        return name != null ? name : uuid.toString();
+    }
+
+    private Node insert(Node tree, Node node) {
+        Node[] parts = split(tree, node);
+        return merge(merge(parts[0], node), parts[1]);
+    }
+
+    /**
+     * Get the node with the lowest balance.
+     */
+    private static Node last(Node tree) {
+        if (tree == null) {
+            return null;
+        }
+        while (tree.right != null) {
+            tree = tree.right;
+        }
+        return tree;
+    }
+
+    /**
+     * Split the tree in the nodes before the key and the nodes after or equal to the key.
+     */
+    private Node[] split(Node tree, Node key) {
+        if (tree == null) {
+            return new Node[]{null, null};
+        }
+        if (compare(tree, key) < 0) {
+            Node[] parts = split(tree.right, key);
+            tree.right = parts[0];
+            tree.update();
+            return new Node[]{tree, parts[1]};
+        }
+        Node[] parts = split(tree.left, key);
+        tree.left = parts[1];
+        tree.update();
+        return new Node[]{parts[0], tree};
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private Node remove(Node tree, Node node) {
+        if (tree == null) {
+            return null;
+        }
+        if (tree == node) {
+            return merge(tree.left, tree.right);
+        }
+        if (compare(node, tree) < 0) {
+            tree.left = remove(tree.left, node);
+        } else {
+            tree.right = remove(tree.right, node);
+        }
+        tree.update();
+        return tree;
+    }
+
+    /**
+     * Higher balances go first, players with the same balance are sorted by uuid so every node has a unique position.
+     */
+    private static int compare(Node a, Node b) {
+        int cmp = Double.compare(b.balance, a.balance);
+        return cmp != 0 ? cmp : a.uuid.compareTo(b.uuid);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node {
+
+        private final UUID uuid;
+        private final double balance;
+        private final int priority;
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        private Node(UUID uuid, double balance, int priority) {
+            this.uuid = uuid;
+            this.balance = balance;
+            this.priority = priority;
+        }
+
+        private void update() {
+            size = 1 + size(left) + size(right);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the plugin log to a file from a background thread, so logging never waits for the disk. Messages are added to
+ * a bounded lock-free queue and the writer thread keeps the file open, flushes it every second and archives it when it
+ * gets too big. When the queue is full new messages are dropped instead of blocking the caller.
+ *
+ * @author Beelzebu
+ */
+public final class LogWriter {
+
+    private static final int CAPACITY = 10000;
+    private static final long MAX_SIZE = 10 * 1024 * 1024;
+    private static final long FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private final FileManager fileManager;
+    private final File file;
+    private final Function<String, String> formatter;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean rotate;
+    // only used by the writer thread
+    private final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
+    private BufferedWriter writer;
+    private long written;
+
+    /**
+     * @param fileManager The file manager used to archive the log.
+     * @param file        The file to write the log.
+     * @param formatter   Function applied to every message in the writer thread before it is written.
+     */
+    public LogWriter(FileManager fileManager, File file, Function<String, String> formatter) {
+        this.fileManager = fileManager;
+        this.file = file;
+        this.formatter = formatter;
+        thread = new Thread(this::run, "Coins Log Writer");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Add a message to the log, this never blocks.
+     *
+     * @param msg The message to log.
+     */
+    public void write(String msg) {
+        if (!running) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (size.incrementAndGet() > CAPACITY) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.add(new Entry(System.currentTimeMillis(), msg));
+    }
+
+    /**
+     * Archive the current log file in the writer thread, the next messages are written to a new file.
+     */
+    public void rotate() {
+        rotate = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Write all the queued messages and close the file.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void run() {
+        long lastFlush = System.nanoTime();
+        long reportedDrops = 0;
+        while (running || !queue.isEmpty()) {
+            if (rotate) {
+                rotate = false;
+                close();
+                if (file.exists() && file.length() > 0) {
+                    fileManager.archiveLog(file);
+                }
+            }
+            Entry entry = queue.poll();
+            if (entry == null) {
+                flush();
+                lastFlush = System.nanoTime();
+                if (running) {
+                    LockSupport.parkNanos(this, FLUSH_NANOS);
+                }
+                continue;
+            }
+            size.decrementAndGet();
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                append(entry.time, (drops - reportedDrops) + " log messages were dropped because the log queue was full.");
+                reportedDrops = drops;
+            }
+            append(entry.time, entry.message);
+            if (written > MAX_SIZE) {
+                rotate = true;
+            }
+            if (System.nanoTime() - lastFlush > FLUSH_NANOS) {
+                flush();
+                lastFlush = System.nanoTime();
+            }
+        }
+        close();
+    }
+
+    private void append(long time, String msg) {
+        try {
+            if (writer == null) {
+                file.getParentFile().mkdirs();
+                written = file.length();
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            }
+            String line = "[" + sdf.format(time) + "] " + formatter.apply(msg);
+            writer.write(line);
+            writer.newLine();
+            written += line.length() + 1;
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(LogWriter.class.getName()).log(Level.WARNING, "Can't save the debug to the file", ex);
+            close();
+        }
+    }
+
+    private void flush() {
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException ex) {
+                Logger.getLogger(LogWriter.class.getName()).log(Level.WARNING, "Can't save the debug to the file", ex);
+                close();
+            }
+        }
+    }
+
+    private void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                Logger.getLogger(LogWriter.class.getName()).log(Level.WARNING, "Can't close the log file", ex);
+            }
+            writer = null;
+        }
+    }
+
+    private static final class Entry {
+
+        private final long time;
+        private final String message;
+
+        private Entry(long time, String message) {
+            this.time = time;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A message parsed once into literal text and %placeholder% segments, the color codes of the literal text are
+ * translated when the message is parsed so rendering it is a single pass without regular expressions.
+ *
+ * @author Beelzebu
+ */
+public final class MessageTemplate {
+
+    private final String[] literals;
+    private final String[] placeholders;
+    private final String[] tokens;
+    private final int length;
+
+    private MessageTemplate(String[] literals, String[] placeholders) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+        tokens = new String[placeholders.length];
+        int size = 0;
+        for (int i = 0; i < placeholders.length; i++) {
+            tokens[i] = "%" + placeholders[i] + "%";
+            size += 16;
+        }
+        for (String literal : literals) {
+            size += literal.length();
+        }
+        length = size;
+    }
+
+    /**
+     * Parse a message, the & color codes are translated and every %name% is a placeholder.
+     *
+     * @param message The message to parse.
+     * @return The parsed message.
+     */
+    public static MessageTemplate compile(String message) {
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        StringBuilder literal = new StringBuilder(message.length());
+        int i = 0;
+        while (i < message.length()) {
+            char ch = message.charAt(i);
+            if (ch == '%') {
+                int end = message.indexOf('%', i + 1);
+                if (end > i + 1 && isPlaceholder(message, i + 1, end)) {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    placeholders.add(message.substring(i + 1, end));
+                    i = end + 1;
+                    continue;
+                }
+            }
+            literal.append(ch == '&' ? '§' : ch);
+            i++;
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    /**
+     * Translate the color codes and replace the %prefix% of a message in a single pass.
+     *
+     * @param message The message to translate.
+     * @param prefix  The prefix to put in the message, if is null the %prefix% isn't replaced.
+     * @return The translated message.
+     */
+    public static String translate(String message, String prefix) {
+        StringBuilder sb = new StringBuilder(message.length() + (prefix != null ? prefix.length() : 0));
+        for (int i = 0; i < message.length(); i++) {
+            char ch = message.charAt(i);
+            if (ch == '%' && prefix != null && message.startsWith("%prefix%", i)) {
+                translate(sb, prefix);
+                i += 7;
+            } else {
+                sb.append(ch == '&' ? '§' : ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void translate(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            sb.append(ch == '&' ? '§' : ch);
+        }
+    }
+
+    private static boolean isPlaceholder(String message, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char ch = message.charAt(i);
+            if (!Character.isLetterOrDigit(ch) && ch != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Render the message replacing the placeholders.
+     *
+     * @param values Function that returns the value of a placeholder, or null to keep the placeholder as it is.
+     * @return The rendered message.
+     */
+    public String render(Function<String, String> values) {
+        if (placeholders.length == 0) {
+            return literals[0];
+        }
+        // the values may render other messages, so every render uses its own builder sized for the expected message
+        StringBuilder sb = new StringBuilder(length);
+        sb.append(literals[0]);
+        for (int i = 0; i < placeholders.length; i++) {
+            String value = values.apply(placeholders[i]);
+            sb.append(value != null ? value : tokens[i]);
+            sb.append(literals[i + 1]);
+        }
+        return sb.toString();
+    }
+}
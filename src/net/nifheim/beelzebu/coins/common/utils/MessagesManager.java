@@ -16,11 +16,56 @@
  */
 package net.nifheim.beelzebu.coins.common.utils;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
 /**
  * @author Beelzebu
  */
 public abstract class MessagesManager implements IConfiguration {
 
+    private final Map<String, MessageTemplate> templates = new ConcurrentHashMap<>();
+    private final Map<String, List<MessageTemplate>> templateLists = new ConcurrentHashMap<>();
+
     public MessagesManager(String lang) {
     }
+
+    /**
+     * Get a message parsed as a template, the message is parsed only the first time it is requested.
+     *
+     * @param path The path of the message.
+     * @return The parsed message, or null if the message doesn't exist.
+     */
+    public MessageTemplate getTemplate(String path) {
+        MessageTemplate template = templates.get(path);
+        if (template == null) {
+            String message = getString(path);
+            if (message == null) {
+                return null;
+            }
+            template = MessageTemplate.compile(message);
+            templates.put(path, template);
+        }
+        return template;
+    }
+
+    /**
+     * Get a list of messages parsed as templates, the messages are parsed only the first time they are requested.
+     *
+     * @param path The path of the messages.
+     * @return The parsed messages.
+     */
+    public List<MessageTemplate> getTemplateList(String path) {
+        return templateLists.computeIfAbsent(path, key -> getStringList(key).stream().map(MessageTemplate::compile).collect(Collectors.toList()));
+    }
+
+    /**
+     * Remove the parsed messages, must be called when the messages are reloaded.
+     */
+    protected void clearTemplates() {
+        templates.clear();
+        templateLists.clear();
+    }
 }
@@ -0,0 +1,78 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the players and nicks that aren't in the database for a short time, so lookups of players that don't
+ * exist don't query the database every time. When the cache is full the oldest entries are removed.
+ *
+ * @author Beelzebu
+ */
+public final class NegativeCache {
+
+    private final long expireNanos;
+    private final Map<Object, Long> entries;
+
+    public NegativeCache(int capacity, long duration, TimeUnit unit) {
+        expireNanos = unit.toNanos(duration);
+        entries = new LinkedHashMap<Object, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Check if a player is known to be missing from the database.
+     *
+     * @param key The uuid or nick of the player.
+     * @return true if the player was looked up recently and wasn't in the database.
+     */
+    public synchronized boolean contains(Object key) {
+        Long added = entries.get(key);
+        if (added == null) {
+            return false;
+        }
+        if (System.nanoTime() - added > expireNanos) {
+            entries.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void add(Object key) {
+        if (key != null) {
+            entries.remove(key); // so the entry is moved to the end and removed after the older entries
+            entries.put(key, System.nanoTime());
+        }
+    }
+
+    public synchronized void remove(Object key) {
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
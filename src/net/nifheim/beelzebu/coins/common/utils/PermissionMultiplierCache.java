@@ -0,0 +1,107 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+
+/**
+ * Cache for the multiplier that players get from the coins.multiplier.x<amount> permissions, the permissions of a
+ * player are checked only the first time a reward is given and again after the cached value expires, so permission
+ * changes are applied after a short time.
+ *
+ * @author Beelzebu
+ */
+public final class PermissionMultiplierCache {
+
+    private static final String PERMISSION = "coins.multiplier.x";
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final long expireNanos;
+
+    public PermissionMultiplierCache(long duration, TimeUnit unit) {
+        expireNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Get the multiplier of a player from his permissions.
+     *
+     * @param uuid The player to get the multiplier.
+     * @return The highest multiplier in the permissions of the player, or 1 if the player doesn't have any multiplier
+     * permission or isn't online.
+     */
+    public int get(UUID uuid) {
+        if (uuid == null) {
+            return 1;
+        }
+        long now = System.nanoTime();
+        Entry entry = entries.get(uuid);
+        if (entry != null && now - entry.loaded <= expireNanos) {
+            return entry.multiplier;
+        }
+        CoinsCore core = CoinsCore.getInstance();
+        if (!core.isOnline(uuid)) { // offline players don't have permissions
+            entries.remove(uuid);
+            return 1;
+        }
+        int multiplier = resolve(core.getMethods().getPermissions(uuid));
+        entries.put(uuid, new Entry(multiplier, now));
+        return multiplier;
+    }
+
+    public void remove(UUID uuid) {
+        if (uuid != null) {
+            entries.remove(uuid);
+        }
+    }
+
+    /**
+     * Get the highest multiplier in a list of permissions.
+     *
+     * @param permissions The permissions to check.
+     * @return The highest multiplier, or 1 if there is no multiplier permission.
+     */
+    public static int resolve(Collection<String> permissions) {
+        int multiplier = 1;
+        boolean found = false;
+        for (String perm : permissions) {
+            if (perm.startsWith(PERMISSION)) {
+                try {
+                    int amount = Integer.parseInt(perm.substring(PERMISSION.length()));
+                    multiplier = found ? Math.max(multiplier, amount) : amount;
+                    found = true;
+                } catch (NumberFormatException ignore) {
+                }
+            }
+        }
+        return multiplier;
+    }
+
+    private static final class Entry {
+
+        private final int multiplier;
+        private final long loaded;
+
+        private Entry(int multiplier, long loaded) {
+            this.multiplier = multiplier;
+            this.loaded = loaded;
+        }
+    }
+}
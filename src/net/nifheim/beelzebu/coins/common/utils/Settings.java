@@ -0,0 +1,80 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.List;
+import lombok.Getter;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+
+/**
+ * Immutable copy of the settings read in hot paths, it is built when the config is loaded and replaced when the config
+ * is reloaded, so reading a setting doesn't walk the config tree.
+ *
+ * @author Beelzebu
+ */
+@Getter
+public final class Settings {
+
+    private final boolean onlineMode;
+    private final double startingCoins;
+    private final boolean createJoin;
+    private final String multipliersServer;
+    private final boolean vaultMultipliers;
+    /**
+     * The prefix with the color codes translated, or null if it isn't in the config.
+     */
+    private final String prefix;
+    private final boolean debug;
+    private final int debugCategories;
+
+    Settings(IConfiguration config) {
+        onlineMode = config.getBoolean("Online Mode", false);
+        startingCoins = config.getDouble("General.Starting Coins", 0);
+        createJoin = config.getBoolean("General.Create Join", false);
+        multipliersServer = config.getString("Multipliers.Server", "default");
+        vaultMultipliers = config.getBoolean("Vault.Use Multipliers", false);
+        String rawPrefix = config.getString("Prefix", null);
+        prefix = rawPrefix != null ? MessageTemplate.translate(rawPrefix, null) : null;
+        debug = config.getBoolean("Debug", false);
+        int categories = 0;
+        if (debug) {
+            List<String> names = config.getStringList("Debug Categories", null);
+            if (names == null || names.isEmpty()) {
+                categories = ~0;
+            } else {
+                for (String name : names) {
+                    try {
+                        categories |= 1 << DebugCategory.valueOf(name.toUpperCase()).ordinal();
+                    } catch (IllegalArgumentException ex) {
+                        CoinsCore.getInstance().log("Unknown debug category in the config: " + name);
+                    }
+                }
+            }
+        }
+        debugCategories = categories;
+    }
+
+    /**
+     * Check if the debug messages of a category are enabled.
+     *
+     * @param category The category to check.
+     * @return true if the messages of the category should be logged.
+     */
+    public boolean isDebug(DebugCategory category) {
+        return (debugCategories & (1 << category.ordinal())) != 0;
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+import net.nifheim.beelzebu.coins.common.utils.CacheManager;
+import net.nifheim.beelzebu.coins.common.utils.CoinsConfig;
+import net.nifheim.beelzebu.coins.common.utils.DebugCategory;
+import net.nifheim.beelzebu.coins.common.utils.IMethods;
+import net.nifheim.beelzebu.coins.common.utils.MapConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link BalanceJournal} with the journal in a temporary folder and a database that only records the batches.
+ *
+ * @author Beelzebu
+ */
+public class BalanceJournalTest {
+
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+    private final List<Map<UUID, Double>> batches = new ArrayList<>();
+    private final Set<String> committed = new HashSet<>();
+    private int failedFlushes;
+    private boolean crashBeforeDeletingSegments;
+    private File dataFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        dataFolder = Files.createTempDirectory("coins").toFile();
+        CacheManager.getPlayersData().put(alice, 100, 1);
+        CacheManager.getPlayersData().put(bob, 100, 1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        CacheManager.getPlayersData().remove(alice);
+        CacheManager.getPlayersData().remove(bob);
+        try (Stream<Path> files = Files.walk(dataFolder.toPath())) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void coinsArentAcceptedWhenTheWriteBehindIsDisabled() {
+        BalanceJournal journal = new BalanceJournal(core(false));
+        journal.start();
+        assertFalse(journal.addCoins(alice, 10));
+        assertEquals(100, CacheManager.getCoins(alice), 0);
+    }
+
+    @Test
+    public void coinsOfUncachedPlayersArentAccepted() {
+        BalanceJournal journal = new BalanceJournal(core(true));
+        journal.start();
+        assertFalse(journal.addCoins(UUID.randomUUID(), 10));
+    }
+
+    @Test
+    public void additionsAreCoalescedInOneBatch() {
+        BalanceJournal journal = new BalanceJournal(core(true));
+        journal.start();
+        assertTrue(journal.addCoins(alice, 10));
+        assertTrue(journal.addCoins(alice, 5));
+        assertTrue(journal.addCoins(bob, 1));
+        assertEquals(115, CacheManager.getCoins(alice), 0);
+        assertEquals(15, journal.getPending(alice), 0);
+        journal.flush();
+        assertEquals(1, batches.size());
+        assertEquals(15, batches.get(0).get(alice), 0);
+        assertEquals(1, batches.get(0).get(bob), 0);
+        assertEquals(0, journal.getPending(alice), 0);
+        journal.shutdown();
+        assertEquals(1, batches.size());
+        assertEquals(0, segments().size());
+    }
+
+    @Test
+    public void aFailedFlushIsRetriedWithTheNewAdditions() {
+        BalanceJournal journal = new BalanceJournal(core(true));
+        journal.start();
+        journal.addCoins(alice, 10);
+        failedFlushes = 1;
+        journal.flush();
+        assertEquals(10, journal.getPending(alice), 0);
+        journal.addCoins(alice, 5);
+        journal.flush();
+        assertEquals(1, batches.size());
+        assertEquals(15, batches.get(0).get(alice), 0);
+        journal.shutdown();
+    }
+
+    @Test
+    public void additionsThatWerentFlushedAreReplayed() {
+        BalanceJournal crashed = new BalanceJournal(core(true));
+        crashed.start();
+        crashed.addCoins(alice, 10);
+        crashed.addCoins(bob, 2);
+        // the server crashed, so the journal wasn't flushed nor closed
+        new BalanceJournal(core(false)).start();
+        assertEquals(1, batches.size());
+        assertEquals(10, batches.get(0).get(alice), 0);
+        assertEquals(2, batches.get(0).get(bob), 0);
+    }
+
+    @Test
+    public void committedSegmentsArentReplayed() throws IOException {
+        BalanceJournal crashed = new BalanceJournal(core(true));
+        crashed.start();
+        crashed.addCoins(alice, 10);
+        List<File> segments = segments();
+        Map<File, byte[]> copies = new HashMap<>();
+        for (File segment : segments) {
+            copies.put(segment, Files.readAllBytes(segment.toPath()));
+        }
+        crashBeforeDeletingSegments = true;
+        crashed.flush();
+        for (Map.Entry<File, byte[]> copy : copies.entrySet()) { // the server crashed before deleting the segments
+            Files.write(copy.getKey().toPath(), copy.getValue());
+        }
+        crashBeforeDeletingSegments = false;
+        new BalanceJournal(core(false)).start();
+        assertEquals(1, batches.size());
+        assertTrue(committed.isEmpty());
+        segments.forEach(segment -> assertFalse(segment.exists()));
+    }
+
+    private List<File> segments() {
+        File[] files = new File(dataFolder, "journal").listFiles((dir, name) -> name.endsWith(".journal") && new File(dir, name).length() > 0);
+        return files == null ? new ArrayList<>() : Stream.of(files).collect(Collectors.toList());
+    }
+
+    private CoinsCore core(boolean writeBehind) {
+        Map<String, Object> config = new HashMap<>();
+        config.put("General.Write Behind.Enabled", writeBehind);
+        CoinsConfig coinsConfig = new MapConfig(config);
+        Database database = (Database) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Database.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "addCoins":
+                    if (failedFlushes > 0) {
+                        failedFlushes--;
+                        return false;
+                    }
+                    @SuppressWarnings("unchecked")
+                    Map<UUID, Double> batch = new HashMap<>((Map<UUID, Double>) args[0]);
+                    batches.add(batch);
+                    committed.addAll((Collection<String>) args[1]);
+                    return true;
+                case "getCommittedSegments":
+                    return committed.stream().filter(key -> key.startsWith(args[0] + ":")).collect(Collectors.toSet());
+                case "removeCommittedSegments":
+                    if (!crashBeforeDeletingSegments) {
+                        committed.removeIf(key -> key.startsWith(args[0] + ":"));
+                    }
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        IMethods methods = (IMethods) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{IMethods.class}, (proxy, method, args) -> null);
+        return new CoinsCore() {
+            @Override
+            public File getDataFolder() {
+                return dataFolder;
+            }
+
+            @Override
+            public CoinsConfig getConfig() {
+                return coinsConfig;
+            }
+
+            @Override
+            public Database getDatabase() {
+                return database;
+            }
+
+            @Override
+            public IMethods getMethods() {
+                return methods;
+            }
+
+            @Override
+            public void updateCache(UUID player, Double coins, long version) {
+            }
+
+            @Override
+            public void debug(DebugCategory category, Supplier<String> msg) {
+            }
+
+            @Override
+            public void debug(Object msg) {
+            }
+
+            @Override
+            public void log(Object msg) {
+            }
+        };
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.database;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link SchemaMigrator} against a connection that only understands the statements used by the migrator.
+ *
+ * @author Beelzebu
+ */
+public class SchemaMigratorTest {
+
+    private final CoinsCore core = new CoinsCore() {
+        @Override
+        public void log(Object msg) {
+        }
+    };
+    private final List<String> applied = new ArrayList<>();
+
+    @Test
+    public void migrationsAreAppliedOnceInOrder() throws SQLException {
+        FakeDatabase db = new FakeDatabase("SQLite");
+        Connection c = db.connect();
+        SchemaMigrator migrator = migrator(3);
+        migrator.migrate(c);
+        migrator.migrate(c);
+        assertEquals(Arrays.asList("v1", "v2", "v3"), applied);
+        assertEquals(new TreeSet<>(Arrays.asList(1, 2, 3)), db.versions);
+        assertTrue(c.getAutoCommit());
+    }
+
+    @Test
+    public void aFailedMigrationKeepsTheMigrationsBeforeIt() throws SQLException {
+        FakeDatabase db = new FakeDatabase("SQLite");
+        SchemaMigrator migrator = migrator(1).add("v2", c -> {
+            throw new SQLException("broken");
+        }).add("v3", c -> applied.add("v3"));
+        try {
+            migrator.migrate(db.connect());
+            fail("The failed migration wasn't reported");
+        } catch (SQLException expected) {
+        }
+        assertEquals(Collections.singletonList("v1"), applied);
+        assertEquals(Collections.singleton(1), db.versions);
+    }
+
+    @Test
+    public void aMigrationAppliedByAnotherServerIsSkipped() throws SQLException {
+        FakeDatabase db = new FakeDatabase("SQLite");
+        SchemaMigrator migrator = new SchemaMigrator(core).add("v1", c -> {
+            applied.add("v1");
+            db.versions.add(1); // another server committed the same migration while this one was running it
+        }).add("v2", c -> applied.add("v2"));
+        migrator.migrate(db.connect());
+        assertEquals(Arrays.asList("v1", "v2"), applied);
+        assertEquals(new TreeSet<>(Arrays.asList(1, 2)), db.versions);
+    }
+
+    @Test
+    public void mysqlReleasesTheLockWhenAMigrationFails() {
+        FakeDatabase db = new FakeDatabase("MySQL");
+        try {
+            migrator(1).add("v2", c -> {
+                throw new SQLException("broken");
+            }).migrate(db.connect());
+            fail("The failed migration wasn't reported");
+        } catch (SQLException expected) {
+        }
+        assertEquals(Collections.singleton(1), db.versions);
+        assertEquals(Arrays.asList("GET_LOCK coins_schema_minecraft_", "RELEASE_LOCK coins_schema_minecraft_"), db.locks);
+    }
+
+    @Test
+    public void mysqlDoesntMigrateWithoutTheLock() {
+        FakeDatabase db = new FakeDatabase("MySQL");
+        db.lockAvailable = false;
+        try {
+            migrator(1).migrate(db.connect());
+            fail("The lock timeout wasn't reported");
+        } catch (SQLException expected) {
+        }
+        assertTrue(applied.isEmpty());
+        assertTrue(db.versions.isEmpty());
+    }
+
+    private SchemaMigrator migrator(int migrations) {
+        SchemaMigrator migrator = new SchemaMigrator(core);
+        for (int i = 1; i <= migrations; i++) {
+            String name = "v" + i;
+            migrator.add(name, c -> applied.add(name));
+        }
+        return migrator;
+    }
+
+    /**
+     * The schema versions of a database, every connection keeps its uncommitted versions until it commits.
+     */
+    private static final class FakeDatabase {
+
+        private final String product;
+        private final Set<Integer> versions = new TreeSet<>();
+        private final List<String> locks = new ArrayList<>();
+        private boolean lockAvailable = true;
+
+        private FakeDatabase(String product) {
+            this.product = product;
+        }
+
+        private Connection connect() {
+            Set<Integer> pending = new TreeSet<>();
+            boolean[] autoCommit = {true};
+            return (Connection) proxy(Connection.class, (method, args) -> {
+                switch (method) {
+                    case "createStatement":
+                        return proxy(Statement.class, (stMethod, stArgs) -> {
+                            String sql = (String) stArgs[0];
+                            if (stMethod.equals("executeQuery") && sql.startsWith("SELECT MAX(`version`)")) {
+                                Set<Integer> all = new TreeSet<>(versions);
+                                all.addAll(pending);
+                                return result(all.isEmpty() ? 0 : ((TreeSet<Integer>) all).last());
+                            }
+                            return 0;
+                        });
+                    case "prepareStatement":
+                        String sql = (String) args[0];
+                        Map<Integer, Object> parameters = new HashMap<>();
+                        return proxy(PreparedStatement.class, (psMethod, psArgs) -> {
+                            if (psMethod.startsWith("set")) {
+                                parameters.put((Integer) psArgs[0], psArgs[1]);
+                            } else if (psMethod.equals("executeUpdate")) {
+                                int version = (Integer) parameters.get(1);
+                                if (versions.contains(version) || !pending.add(version)) {
+                                    throw new SQLException("Duplicate entry '" + version + "' for key 'PRIMARY'");
+                                }
+                                if (autoCommit[0]) {
+                                    versions.addAll(pending);
+                                    pending.clear();
+                                }
+                                return 1;
+                            } else if (psMethod.equals("executeQuery")) {
+                                String function = sql.substring(7, sql.indexOf('('));
+                                locks.add(function + " " + parameters.get(1));
+                                return result(function.equals("GET_LOCK") && !lockAvailable ? 0 : 1);
+                            }
+                            return null;
+                        });
+                    case "getMetaData":
+                        return proxy(DatabaseMetaData.class, (mdMethod, mdArgs) -> mdMethod.equals("getDatabaseProductName") ? product : null);
+                    case "getCatalog":
+                        return "minecraft";
+                    case "getAutoCommit":
+                        return autoCommit[0];
+                    case "setAutoCommit":
+                        autoCommit[0] = (Boolean) args[0];
+                        return null;
+                    case "commit":
+                        versions.addAll(pending);
+                        pending.clear();
+                        return null;
+                    case "rollback":
+                        pending.clear();
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private static ResultSet result(int value) {
+            boolean[] read = {false};
+            return (ResultSet) proxy(ResultSet.class, (method, args) -> {
+                switch (method) {
+                    case "next":
+                        return !read[0] && (read[0] = true);
+                    case "getInt":
+                        return value;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private static Object proxy(Class<?> type, Handler handler) {
+            return Proxy.newProxyInstance(SchemaMigratorTest.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+                if (method.getName().equals("close")) {
+                    return null;
+                }
+                Object result = handler.handle(method.getName(), args);
+                if (result == null && method.getReturnType() == boolean.class) {
+                    return false;
+                }
+                if (result == null && method.getReturnType() == int.class) {
+                    return 0;
+                }
+                return result;
+            });
+        }
+
+        private interface Handler {
+
+            Object handle(String method, Object[] args) throws SQLException;
+        }
+    }
+}
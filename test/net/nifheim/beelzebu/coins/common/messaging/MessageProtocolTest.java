@@ -0,0 +1,155 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.messaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.nifheim.beelzebu.coins.common.database.VersionedBalance;
+import net.nifheim.beelzebu.coins.common.multiplier.Multiplier;
+import net.nifheim.beelzebu.coins.common.utils.BalanceCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Beelzebu
+ */
+public class MessageProtocolTest {
+
+    @Test
+    public void updatesAreDecodedInOrder() throws IOException {
+        Map<UUID, VersionedBalance> balances = new LinkedHashMap<>();
+        balances.put(UUID.randomUUID(), new VersionedBalance(10.5, 3));
+        balances.put(UUID.randomUUID(), new VersionedBalance(0, BalanceCache.UNKNOWN_VERSION));
+        balances.put(UUID.randomUUID(), new VersionedBalance(-1, Long.MAX_VALUE));
+        byte[] frame = MessageProtocol.encodeUpdates(balances);
+        assertEquals(MessageProtocol.UPDATE, MessageProtocol.getType(frame));
+        List<Object> expected = new ArrayList<>();
+        balances.forEach((uuid, balance) -> expected.addAll(Arrays.asList(uuid, balance.getBalance(), balance.getVersion())));
+        assertEquals(expected, decodeUpdates(frame));
+    }
+
+    @Test
+    public void manyUpdatesAreSplitInFrames() throws IOException {
+        Map<UUID, VersionedBalance> balances = new LinkedHashMap<>();
+        for (int i = 0; i < 2500; i++) {
+            balances.put(UUID.randomUUID(), new VersionedBalance(i, i));
+        }
+        List<byte[]> frames = MessageProtocol.encodeUpdateFrames(balances);
+        assertEquals(3, frames.size());
+        List<UUID> decoded = new ArrayList<>();
+        for (byte[] frame : frames) {
+            assertTrue(frame.length < 32767); // the max size of a plugin message
+            MessageProtocol.decode(frame, new MessageProtocol.Handler() {
+                @Override
+                public void onUpdate(UUID uuid, double balance, long version) {
+                    assertEquals(balances.get(uuid).getBalance(), balance, 0);
+                    decoded.add(uuid);
+                }
+            });
+        }
+        assertEquals(new ArrayList<>(balances.keySet()), decoded);
+    }
+
+    @Test
+    public void interestIsDecoded() throws IOException {
+        UUID uuid = UUID.randomUUID();
+        List<Object> decoded = new ArrayList<>();
+        MessageProtocol.decode(MessageProtocol.encodeInterest(uuid, false), new MessageProtocol.Handler() {
+            @Override
+            public void onInterest(UUID player, boolean interested) {
+                decoded.add(player);
+                decoded.add(interested);
+            }
+        });
+        assertEquals(Arrays.asList(uuid, false), decoded);
+    }
+
+    @Test
+    public void multipliersAreDecoded() throws IOException {
+        Multiplier multiplier = new Multiplier("lobby", null, true, 3, System.currentTimeMillis() + 60000);
+        List<Multiplier> decoded = new ArrayList<>();
+        MessageProtocol.decode(MessageProtocol.encodeMultiplier(multiplier), new MessageProtocol.Handler() {
+            @Override
+            public void onMultiplier(Multiplier received) {
+                decoded.add(received);
+            }
+        });
+        assertEquals(1, decoded.size());
+        assertEquals("lobby", decoded.get(0).getServer());
+        assertNull(decoded.get(0).getEnabler());
+        assertTrue(decoded.get(0).isEnabled());
+        assertEquals(3, decoded.get(0).getAmount());
+        assertTrue(decoded.get(0).checkTime() > 50000);
+    }
+
+    @Test
+    public void oldMessagesAreNotFrames() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF("Update");
+            out.writeUTF(UUID.randomUUID() + " 10.0");
+        }
+        assertFalse(MessageProtocol.isFrame(bytes.toByteArray()));
+        assertEquals(-1, MessageProtocol.getType(bytes.toByteArray()));
+        assertFalse(MessageProtocol.isFrame(new byte[]{(byte) 0xC0, 1}));
+    }
+
+    @Test(expected = IOException.class)
+    public void otherVersionsAreRejected() throws IOException {
+        byte[] frame = MessageProtocol.encodeInterest(UUID.randomUUID(), true);
+        frame[1] = MessageProtocol.VERSION + 1;
+        MessageProtocol.decode(frame, new MessageProtocol.Handler() {
+        });
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFramesAreRejected() throws IOException {
+        byte[] frame = MessageProtocol.encodeUpdate(UUID.randomUUID(), 1, 1);
+        MessageProtocol.decode(Arrays.copyOf(frame, frame.length - 1), new MessageProtocol.Handler() {
+        });
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownTypesAreRejected() throws IOException {
+        byte[] frame = MessageProtocol.encodeInterest(UUID.randomUUID(), true);
+        frame[2] = 99;
+        MessageProtocol.decode(frame, new MessageProtocol.Handler() {
+        });
+    }
+
+    private static List<Object> decodeUpdates(byte[] frame) throws IOException {
+        List<Object> decoded = new ArrayList<>();
+        MessageProtocol.decode(frame, new MessageProtocol.Handler() {
+            @Override
+            public void onUpdate(UUID uuid, double balance, long version) {
+                decoded.addAll(Arrays.asList(uuid, balance, version));
+            }
+        });
+        return decoded;
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.messaging;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests {@link RedisTransport} against a stand-in server that speaks the part of the Redis protocol used by it.
+ *
+ * @author Beelzebu
+ */
+public class RedisTransportTest {
+
+    private static final int PING_INTERVAL = 200;
+    private FakeRedis redis;
+    private RedisTransport transport;
+    private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        redis = new FakeRedis();
+        transport = new RedisTransport("127.0.0.1", redis.getPort(), "", "coins", PING_INTERVAL, 100, msg -> {
+        }, msg -> {
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.shutdown();
+        redis.close();
+    }
+
+    @Test
+    public void publishEncodesTheFrameAsABulkString() throws Exception {
+        byte[] frame = "frame\r\nwith a line break".getBytes(StandardCharsets.UTF_8);
+        transport.publish(frame);
+        Command command = redis.next("PUBLISH");
+        assertEquals(3, command.arguments.size());
+        assertEquals("coins", command.argument(1));
+        byte[] message = command.arguments.get(2);
+        assertEquals(16 + frame.length, message.length);
+        assertArrayEquals(frame, Arrays.copyOfRange(message, 16, message.length));
+    }
+
+    @Test
+    public void publishReconnectsWhenTheConnectionWasClosed() throws Exception {
+        transport.publish(new byte[]{1});
+        Command first = redis.next("PUBLISH");
+        first.connection.close();
+        transport.publish(new byte[]{2});
+        Command second = redis.next("PUBLISH");
+        assertNotSame(first.connection, second.connection);
+        assertArrayEquals(new byte[]{2}, Arrays.copyOfRange(second.arguments.get(2), 16, 17));
+    }
+
+    @Test
+    public void subscribeReceivesTheFramesOfOtherServersOnly() throws Exception {
+        transport.start(received::add);
+        Command subscribe = redis.next("SUBSCRIBE");
+        assertEquals("coins", subscribe.argument(1));
+        transport.publish(new byte[]{1});
+        byte[] own = redis.next("PUBLISH").arguments.get(2);
+        redis.message(subscribe.connection, own);
+        byte[] other = new byte[16 + 3];
+        other[16] = 7;
+        other[17] = 8;
+        other[18] = 9;
+        redis.message(subscribe.connection, other);
+        assertArrayEquals(new byte[]{7, 8, 9}, received.poll(5, TimeUnit.SECONDS));
+        assertNull(received.poll(PING_INTERVAL, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void subscribeReconnectsWhenTheConnectionIsLost() throws Exception {
+        transport.start(received::add);
+        Command first = redis.next("SUBSCRIBE");
+        first.connection.close();
+        Command second = redis.next("SUBSCRIBE");
+        assertNotSame(first.connection, second.connection);
+        byte[] message = new byte[16 + 1];
+        message[16] = 42;
+        redis.message(second.connection, message);
+        assertArrayEquals(new byte[]{42}, received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void subscribePingsAnIdleConnection() throws Exception {
+        transport.start(received::add);
+        Command subscribe = redis.next("SUBSCRIBE");
+        Command ping = redis.next("PING");
+        assertEquals(subscribe.connection, ping.connection);
+        redis.pong(ping.connection);
+        assertEquals(subscribe.connection, redis.next("PING").connection); // still connected after the answer
+    }
+
+    @Test
+    public void subscribeReconnectsWhenThePingIsNotAnswered() throws Exception {
+        transport.start(received::add);
+        Command first = redis.next("SUBSCRIBE");
+        assertEquals(first.connection, redis.next("PING").connection);
+        Command second = redis.next("SUBSCRIBE"); // the PING wasn't answered
+        assertNotSame(first.connection, second.connection);
+    }
+
+    private static final class Command {
+
+        private final Socket connection;
+        private final List<byte[]> arguments;
+
+        private Command(Socket connection, List<byte[]> arguments) {
+            this.connection = connection;
+            this.arguments = arguments;
+        }
+
+        private String argument(int index) {
+            return new String(arguments.get(index), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Accepts connections and queues every command received, PUBLISH and SUBSCRIBE are answered like Redis does and
+     * the PINGs are only answered with {@link #pong(Socket)}.
+     */
+    private static final class FakeRedis {
+
+        private final ServerSocket server = new ServerSocket(0);
+        private final BlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+        private final List<Socket> connections = new ArrayList<>();
+
+        private FakeRedis() throws IOException {
+            Thread acceptor = new Thread(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        synchronized (connections) {
+                            connections.add(socket);
+                        }
+                        Thread reader = new Thread(() -> read(socket));
+                        reader.setDaemon(true);
+                        reader.start();
+                    } catch (IOException ignore) { // closed
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private int getPort() {
+            return server.getLocalPort();
+        }
+
+        /**
+         * Wait for the next command with the given name, the other commands are skipped.
+         */
+        private Command next(String name) throws InterruptedException {
+            while (true) {
+                Command command = commands.poll(5, TimeUnit.SECONDS);
+                assertNotNull("No " + name + " was received", command);
+                if (command.argument(0).equals(name)) {
+                    return command;
+                }
+            }
+        }
+
+        private void message(Socket connection, byte[] message) throws IOException {
+            reply(connection, array(bulk("message".getBytes(StandardCharsets.UTF_8)), bulk("coins".getBytes(StandardCharsets.UTF_8)), bulk(message)));
+        }
+
+        private void pong(Socket connection) throws IOException {
+            reply(connection, array(bulk("pong".getBytes(StandardCharsets.UTF_8)), bulk(new byte[0])));
+        }
+
+        private void read(Socket socket) {
+            try {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                while (true) {
+                    if (in.read() != '*') {
+                        return;
+                    }
+                    int count = Integer.parseInt(readLine(in));
+                    List<byte[]> arguments = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        in.read(); // $
+                        byte[] argument = new byte[Integer.parseInt(readLine(in))];
+                        for (int read = 0; read < argument.length;) {
+                            read += in.read(argument, read, argument.length - read);
+                        }
+                        readLine(in);
+                        arguments.add(argument);
+                    }
+                    Command command = new Command(socket, arguments);
+                    switch (command.argument(0)) {
+                        case "PUBLISH":
+                            reply(socket, ":1\r\n".getBytes(StandardCharsets.UTF_8));
+                            break;
+                        case "SUBSCRIBE":
+                            reply(socket, array(bulk("subscribe".getBytes(StandardCharsets.UTF_8)), bulk(arguments.get(1)), ":1\r\n".getBytes(StandardCharsets.UTF_8)));
+                            break;
+                        default:
+                            break;
+                    }
+                    commands.add(command);
+                }
+            } catch (IOException | RuntimeException ignore) { // closed
+            }
+        }
+
+        private static synchronized void reply(Socket socket, byte[] reply) throws IOException {
+            OutputStream out = socket.getOutputStream();
+            out.write(reply);
+            out.flush();
+        }
+
+        private static byte[] bulk(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write('$');
+            byte[] length = String.valueOf(data.length).getBytes(StandardCharsets.UTF_8);
+            out.write(length, 0, length.length);
+            out.write('\r');
+            out.write('\n');
+            out.write(data, 0, data.length);
+            out.write('\r');
+            out.write('\n');
+            return out.toByteArray();
+        }
+
+        private static byte[] array(byte[]... elements) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] header = ("*" + elements.length + "\r\n").getBytes(StandardCharsets.UTF_8);
+            out.write(header, 0, header.length);
+            for (byte[] element : elements) {
+                out.write(element, 0, element.length);
+            }
+            return out.toByteArray();
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b < 0) {
+                    throw new IOException("closed");
+                }
+                line.append((char) b);
+            }
+            in.read();
+            return line.toString();
+        }
+
+        private void close() throws IOException {
+            server.close();
+            synchronized (connections) {
+                for (Socket socket : connections) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import net.nifheim.beelzebu.coins.common.database.VersionedBalance;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Beelzebu
+ */
+public class BalanceCacheTest {
+
+    private final BalanceCache cache = new BalanceCache(10, TimeUnit.MINUTES);
+    private final UUID player = UUID.randomUUID();
+
+    @Test
+    public void missingPlayersReturnMinusOne() {
+        assertEquals(-1, cache.get(player), 0);
+        assertEquals(-1, cache.get(null), 0);
+        assertSame(VersionedBalance.MISSING, cache.add(player, 10));
+    }
+
+    @Test
+    public void olderVersionsDontReplaceNewerBalances() {
+        assertTrue(cache.put(player, 100, 5));
+        assertFalse(cache.put(player, 50, 4));
+        assertEquals(100, cache.get(player), 0);
+        assertTrue(cache.put(player, 70, 5)); // same version, the balance received later wins
+        assertEquals(70, cache.get(player), 0);
+        assertTrue(cache.put(player, 80, 6));
+        assertEquals(80, cache.get(player), 0);
+    }
+
+    @Test
+    public void balancesWithoutVersionOnlyReplaceBalancesWithoutVersion() {
+        cache.put(player, 100);
+        assertTrue(cache.put(player, 200, BalanceCache.UNKNOWN_VERSION));
+        assertTrue(cache.put(player, 300, 1));
+        assertFalse(cache.put(player, 400, BalanceCache.UNKNOWN_VERSION));
+        assertEquals(300, cache.get(player), 0);
+    }
+
+    @Test
+    public void addKeepsTheCachedVersion() {
+        cache.put(player, 100, 7);
+        VersionedBalance balance = cache.add(player, 25);
+        assertEquals(125, balance.getBalance(), 0);
+        assertEquals(7, balance.getVersion());
+        assertFalse(cache.put(player, 100, 6));
+        assertEquals(125, cache.get(player), 0);
+    }
+
+    @Test
+    public void expiredEntriesAreDroppedAndReplacedByAnyVersion() throws InterruptedException {
+        BalanceCache expiring = new BalanceCache(1, TimeUnit.MILLISECONDS);
+        expiring.put(player, 100, 5);
+        Thread.sleep(5);
+        assertTrue(expiring.put(player, 50, 1)); // the newer balance expired, so it can't block an older one
+        assertEquals(50, expiring.get(player), 0);
+        Thread.sleep(5);
+        assertEquals(-1, expiring.get(player), 0);
+        assertSame(VersionedBalance.MISSING, expiring.add(player, 1));
+    }
+
+    @Test
+    public void removeKeepsTheOtherEntriesReachable() {
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            UUID uuid = UUID.randomUUID();
+            players.add(uuid);
+            cache.put(uuid, i, i);
+        }
+        for (int i = 0; i < players.size(); i += 2) {
+            cache.remove(players.get(i));
+        }
+        for (int i = 0; i < players.size(); i++) {
+            assertEquals(i % 2 == 0 ? -1 : i, cache.get(players.get(i)), 0);
+        }
+    }
+
+    @Test
+    public void concurrentAdditionsAreNotLost() throws InterruptedException {
+        cache.put(player, 0, 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    cache.add(player, 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, cache.get(player), 0);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.nifheim.beelzebu.coins.common.CoinsCore;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Beelzebu
+ */
+public class DebugCategoryTest {
+
+    private final Map<String, Object> config = new HashMap<>();
+    private final List<Object> logged = new ArrayList<>();
+    private int built;
+
+    @Test
+    public void everyCategoryIsDisabledWithoutDebug() {
+        config.put("Debug Categories", Collections.singletonList("cache"));
+        Settings settings = new Settings(new MapConfig(config));
+        for (DebugCategory category : DebugCategory.values()) {
+            assertFalse(settings.isDebug(category));
+        }
+    }
+
+    @Test
+    public void everyCategoryIsEnabledWhenNoneIsListed() {
+        config.put("Debug", true);
+        Settings settings = new Settings(new MapConfig(config));
+        for (DebugCategory category : DebugCategory.values()) {
+            assertTrue(settings.isDebug(category));
+        }
+    }
+
+    @Test
+    public void onlyTheListedCategoriesAreEnabled() {
+        config.put("Debug", true);
+        config.put("Debug Categories", Arrays.asList("cache", "DATABASE"));
+        Settings settings = new Settings(new MapConfig(config));
+        assertTrue(settings.isDebug(DebugCategory.CACHE));
+        assertTrue(settings.isDebug(DebugCategory.DATABASE));
+        assertFalse(settings.isDebug(DebugCategory.MESSAGING));
+        assertFalse(settings.isDebug(DebugCategory.MULTIPLIERS));
+    }
+
+    @Test
+    public void messagesOfDisabledCategoriesArentBuilt() {
+        config.put("Debug", true);
+        config.put("Debug Categories", Collections.singletonList("cache"));
+        CoinsCore core = core();
+        core.debug(DebugCategory.DATABASE, () -> "database " + ++built);
+        core.debug(DebugCategory.CACHE, () -> "cache " + ++built);
+        assertEquals(1, built);
+        assertEquals(Collections.singletonList("cache 1"), logged);
+    }
+
+    private CoinsCore core() {
+        CoinsConfig coinsConfig = new MapConfig(config);
+        return new CoinsCore() {
+            @Override
+            public CoinsConfig getConfig() {
+                return coinsConfig;
+            }
+
+            @Override
+            public void debug(Object msg) {
+                logged.add(msg);
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Config backed by a map for the tests, the paths that aren't in the map return the default value.
+ *
+ * @author Beelzebu
+ */
+public class MapConfig extends CoinsConfig {
+
+    private final Map<String, Object> values;
+
+    public MapConfig(Map<String, Object> values) {
+        this.values = values;
+    }
+
+    @Override
+    public Object get(String path) {
+        return values.get(path);
+    }
+
+    @Override
+    public String getString(String path) {
+        return (String) get(path);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getStringList(String path) {
+        return (List<String>) get(path);
+    }
+
+    @Override
+    public boolean getBoolean(String path) {
+        return getBoolean(path, false);
+    }
+
+    @Override
+    public int getInt(String path) {
+        return getInt(path, 0);
+    }
+
+    @Override
+    public double getDouble(String path) {
+        return getDouble(path, 0);
+    }
+
+    @Override
+    public Object get(String path, Object def) {
+        return values.getOrDefault(path, def);
+    }
+
+    @Override
+    public String getString(String path, String def) {
+        return (String) get(path, def);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getStringList(String path, List<String> def) {
+        return (List<String>) get(path, def);
+    }
+
+    @Override
+    public boolean getBoolean(String path, boolean def) {
+        return (Boolean) get(path, def);
+    }
+
+    @Override
+    public int getInt(String path, int def) {
+        return (Integer) get(path, def);
+    }
+
+    @Override
+    public double getDouble(String path, double def) {
+        return (Double) get(path, def);
+    }
+
+    @Override
+    public void set(String path, Object value) {
+        values.put(path, value);
+    }
+
+    @Override
+    public Set<String> getConfigurationSection(String path) {
+        return values.keySet().stream().filter(key -> key.startsWith(path + ".")).collect(Collectors.toSet());
+    }
+
+    @Override
+    public void reload() {
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Beelzebu
+ */
+public class MessageTemplateTest {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    @Test
+    public void colorCodesAreTranslatedWhenParsed() {
+        assertEquals("§aCoins: §e10", MessageTemplate.compile("&aCoins: &e10").render(values::get));
+    }
+
+    @Test
+    public void placeholdersAreReplaced() {
+        values.put("player", "Notch");
+        values.put("coins", "10.5");
+        assertEquals("§7Notch has §e10.5§7 coins, Notch!", MessageTemplate.compile("&7%player% has &e%coins%&7 coins, %player%!").render(values::get));
+    }
+
+    @Test
+    public void unknownPlaceholdersAreKept() {
+        values.put("player", "Notch");
+        assertEquals("Notch %unknown%", MessageTemplate.compile("%player% %unknown%").render(values::get));
+    }
+
+    @Test
+    public void percentSignsThatArentPlaceholdersAreKept() {
+        values.put("player", "Notch");
+        assertEquals("50% off, Notch 100%", MessageTemplate.compile("50% off, %player% 100%").render(values::get));
+        assertEquals("%% and %", MessageTemplate.compile("%% and %").render(values::get));
+    }
+
+    @Test
+    public void valuesAreInsertedAsTheyAre() {
+        values.put("player", "&a$1\\");
+        assertEquals("§7&a$1\\", MessageTemplate.compile("&7%player%").render(values::get));
+    }
+
+    @Test
+    public void translateReplacesThePrefix() {
+        assertEquals("§8[§cCoins§8] §7Hi %other%", MessageTemplate.translate("%prefix% &7Hi %other%", "&8[&cCoins&8]"));
+        assertEquals("$1\\ hi", MessageTemplate.translate("%prefix% hi", "$1\\"));
+        assertEquals("%prefix% §7hi", MessageTemplate.translate("%prefix% &7hi", null));
+    }
+
+    @Test
+    public void renderingMatchesTheReplaceAllChain() {
+        String message = "%prefix% &7%enabler% enabled a &ex%amount%&7 multiplier in %server% for %minutes% minutes (#%id%), 100% &6more coins!";
+        String prefix = "&8[&cCoins&8]";
+        values.put("enabler", "Notch");
+        values.put("server", "lobby");
+        values.put("amount", "2");
+        values.put("minutes", "30");
+        values.put("id", "7");
+        String expected = message
+                .replaceAll("%enabler%", values.get("enabler"))
+                .replaceAll("%server%", values.get("server"))
+                .replaceAll("%amount%", values.get("amount"))
+                .replaceAll("%minutes%", values.get("minutes"))
+                .replaceAll("%id%", values.get("id"))
+                .replaceAll("%prefix%", prefix)
+                .replaceAll("&", "§");
+        assertEquals(expected, MessageTemplate.compile(MessageTemplate.translate(message, prefix)).render(values::get));
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * This file is part of Coins
+ *
+ * Copyright (C) 2017 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package net.nifheim.beelzebu.coins.common.utils;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Beelzebu
+ */
+public class NegativeCacheTest {
+
+    @Test
+    public void remembersMissingPlayersUntilRemoved() {
+        NegativeCache cache = new NegativeCache(10, 1, TimeUnit.MINUTES);
+        UUID uuid = UUID.randomUUID();
+        cache.add(uuid);
+        cache.add("Notch");
+        cache.add(null);
+        assertTrue(cache.contains(uuid));
+        assertTrue(cache.contains("Notch"));
+        assertFalse(cache.contains("jeb_"));
+        cache.remove(uuid);
+        assertFalse(cache.contains(uuid));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void entriesExpire() throws InterruptedException {
+        NegativeCache cache = new NegativeCache(10, 1, TimeUnit.MILLISECONDS);
+        cache.add("Notch");
+        Thread.sleep(5);
+        assertFalse(cache.contains("Notch"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void theOldestEntriesAreRemovedWhenFull() {
+        NegativeCache cache = new NegativeCache(2, 1, TimeUnit.MINUTES);
+        cache.add("a");
+        cache.add("b");
+        cache.add("a"); // added again, so "b" is now the oldest
+        cache.add("c");
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+    }
+}